@@ -0,0 +1,562 @@
+package org.simplexml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * This class deserializes a xml document that arrives in chunks, e.g. from a
+ * socket channel. Instead of reading from a stream, the chunks are pushed into
+ * the deserializer as they arrive. Every chunk is decoded and parsed into the
+ * document tree immediately as far as possible, and the state is kept until
+ * the next chunk. A syntax error completes the result future as soon as the
+ * chunk containing it is fed.
+ *
+ * Only the parsing is incremental. The mapping to objects is not started
+ * before the end of the document and runs completely within end(), on the
+ * thread that calls it, because it needs the complete element of an object:
+ * the length of an array is taken from the number of its child elements, the
+ * fields are looked up by name in any order, and the validation of an object
+ * is executed after all of its children are set. For large documents, end()
+ * should therefore not be called on an event loop thread, but e.g. on a worker
+ * thread.
+ *
+ * The encoding is detected from the byte order mark or the encoding of the xml
+ * declaration; without either, UTF-8 is assumed. Encodings that do not write
+ * the declaration in ASCII, like UTF-16, are only supported with a byte order
+ * mark. Document type declarations are not supported.
+ *
+ * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
+ */
+public final class AsyncXMLDeserializer {
+	private static final int MIN_COMPACT_SIZE = 8192;
+	private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+	private static final byte[] DECLARATION_START = { '<', '?', 'x', 'm', 'l' };
+	private static final byte[] UTF_8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+	private static final byte[] UTF_16BE_BOM = { (byte) 0xFE, (byte) 0xFF };
+	private static final byte[] UTF_16LE_BOM = { (byte) 0xFF, (byte) 0xFE };
+
+	private final Class<?> clazz;
+	private final CompletableFuture<Object> result = new CompletableFuture<>();
+	private final Document doc;
+	private final StringBuilder buffer = new StringBuilder();
+	private final StringBuilder text = new StringBuilder();
+	private final CharBuffer chars = CharBuffer.allocate(MIN_COMPACT_SIZE);
+	private ByteBuffer remainder = EMPTY_BUFFER;
+	private CharsetDecoder decoder;
+	private Node currentNode;
+	private boolean isFirstChar = true;
+	private boolean isFirstToken = true;
+	private boolean lastWasCR = false;
+	private boolean ended = false;
+	private int position = 0;
+	private int scanPosition = 0;
+	private char scanQuote = 0;
+
+	/**
+	 * Creates a deserializer for the expected type.
+	 *
+	 * @param clazz
+	 *            expected type
+	 *
+	 * @throws ParserConfigurationException
+	 */
+	public AsyncXMLDeserializer(Class<?> clazz) throws ParserConfigurationException {
+		this.clazz = clazz;
+		doc = XMLHelper.createEmptyDocument();
+		doc.setStrictErrorChecking(false);
+		currentNode = doc;
+	}
+
+	/**
+	 * Signals that the whole document has been fed. The document is mapped to
+	 * the expected type and the result future is completed, either with the
+	 * deserialized object or with the exception that occurred. The mapping is
+	 * done synchronously on the calling thread.
+	 */
+	public void end() {
+		if (ended) {
+			throw new IllegalStateException("Deserializer has already been ended.");
+		}
+		ended = true;
+
+		if (result.isDone()) {
+			return;
+		}
+
+		try {
+			if (decoder == null) {
+				decode(EMPTY_BUFFER, true);
+			}
+			if (remainder.hasRemaining()) {
+				throw new SAXException("Incomplete character at end of document.");
+			}
+
+			parse(true);
+
+			if (doc.getDocumentElement() == null || currentNode != doc) {
+				throw new SAXException("Premature end of document.");
+			}
+
+			result.complete(XMLSerializer.deserialize(doc, clazz));
+		} catch (Exception e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Feeds the next chunk of the document. All remaining bytes of the chunk
+	 * are consumed. If the chunk contains an error, the result future is
+	 * completed exceptionally and all further chunks are ignored.
+	 *
+	 * @param chunk
+	 *            next bytes of the document
+	 */
+	public void feed(ByteBuffer chunk) {
+		if (ended) {
+			throw new IllegalStateException("Deserializer has already been ended.");
+		}
+
+		if (result.isDone()) {
+			chunk.position(chunk.limit());
+			return;
+		}
+
+		try {
+			decode(chunk, false);
+			parse(false);
+		} catch (Exception e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Gets the future that is completed with the deserialized object after the
+	 * end of the document.
+	 *
+	 * @return result future
+	 */
+	public CompletableFuture<Object> getResult() {
+		return result;
+	}
+
+	private void appendChars(CharBuffer decoded) {
+		while (decoded.hasRemaining()) {
+			char c = decoded.get();
+
+			if (isFirstChar) {
+				isFirstChar = false;
+				if (c == '\uFEFF') {
+					continue;
+				}
+			}
+
+			if (c == '\r') {
+				buffer.append('\n');
+				lastWasCR = true;
+			} else {
+				if (c != '\n' || !lastWasCR) {
+					buffer.append(c);
+				}
+				lastWasCR = false;
+			}
+		}
+	}
+
+	private void appendText(CharSequence str, int start, int end, boolean isAttribute) throws SAXException {
+		for (int i = start; i < end; i++) {
+			char c = str.charAt(i);
+
+			if (c == '&') {
+				int semicolon = i + 1;
+				while (semicolon < end && str.charAt(semicolon) != ';') {
+					semicolon++;
+				}
+				if (semicolon >= end) {
+					throw new SAXException("Unterminated entity reference.");
+				}
+				text.append(resolveEntity(str.subSequence(i + 1, semicolon).toString()));
+				i = semicolon;
+			} else if (c == '<' && isAttribute) {
+				throw new SAXException("Character '<' not allowed in attribute value.");
+			} else if ((c == '\n' || c == '\t') && isAttribute) {
+				text.append(' ');
+			} else {
+				text.append(c);
+			}
+		}
+	}
+
+	private void decode(ByteBuffer chunk, boolean isLast) throws CharacterCodingException, SAXException {
+		ByteBuffer input = chunk;
+		if (remainder.hasRemaining()) {
+			input = ByteBuffer.allocate(remainder.remaining() + chunk.remaining());
+			input.put(remainder).put(chunk).flip();
+		}
+
+		if (decoder == null) {
+			Charset encoding = detectEncoding(input, isLast);
+			if (encoding != null) {
+				decoder = encoding.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+						.onUnmappableCharacter(CodingErrorAction.REPORT);
+			}
+		}
+
+		chars.clear();
+		while (decoder != null) {
+			CoderResult coderResult = decoder.decode(input, chars, false);
+			chars.flip();
+			appendChars(chars);
+			chars.clear();
+
+			if (coderResult.isError()) {
+				coderResult.throwException();
+			} else if (coderResult.isUnderflow()) {
+				break;
+			}
+		}
+
+		if (input.hasRemaining()) {
+			remainder = ByteBuffer.allocate(input.remaining());
+			remainder.put(input).flip();
+		} else {
+			remainder = EMPTY_BUFFER;
+		}
+	}
+
+	private Charset detectEncoding(ByteBuffer input, boolean isLast) throws SAXException {
+		if (!isLast && (startsWith(input, UTF_8_BOM, true) || startsWith(input, UTF_16BE_BOM, true)
+				|| startsWith(input, UTF_16LE_BOM, true) || startsWith(input, DECLARATION_START, true))) {
+			return null;
+		} else if (startsWith(input, UTF_8_BOM, false)) {
+			return StandardCharsets.UTF_8;
+		} else if (startsWith(input, UTF_16BE_BOM, false) || startsWith(input, UTF_16LE_BOM, false)) {
+			return StandardCharsets.UTF_16;
+		} else if (!startsWith(input, DECLARATION_START, false)) {
+			return StandardCharsets.UTF_8;
+		}
+
+		int end = input.position() + DECLARATION_START.length;
+		while (end + 1 < input.limit() && (input.get(end) != '?' || input.get(end + 1) != '>')) {
+			end++;
+		}
+		if (end + 1 >= input.limit()) {
+			return isLast ? StandardCharsets.UTF_8 : null;
+		}
+
+		byte[] declaration = new byte[end - input.position()];
+		input.duplicate().get(declaration);
+		String content = new String(declaration, StandardCharsets.ISO_8859_1);
+
+		int encoding = content.indexOf("encoding");
+		if (encoding < 0) {
+			return StandardCharsets.UTF_8;
+		}
+
+		int quote = content.indexOf('=', encoding) + 1;
+		while (quote < content.length() && Character.isWhitespace(content.charAt(quote))) {
+			quote++;
+		}
+		int quoteEnd = quote < content.length() ? content.indexOf(content.charAt(quote), quote + 1) : -1;
+		if (quoteEnd < 0) {
+			throw new SAXException("Invalid xml declaration.");
+		}
+
+		String charsetName = content.substring(quote + 1, quoteEnd);
+		try {
+			Charset charset = Charset.forName(charsetName);
+			if (new String(declaration, charset).equals(content)) {
+				return charset;
+			}
+		} catch (IllegalArgumentException e) {
+			throw new SAXException("Unsupported encoding " + charsetName + ".", e);
+		}
+		throw new SAXException("Unsupported encoding " + charsetName + ".");
+	}
+
+	private void flushText() throws SAXException {
+		if (text.length() == 0) {
+			return;
+		}
+
+		String str = text.toString();
+		text.setLength(0);
+
+		if (isWhitespace(str)) {
+			return;
+		} else if (currentNode == doc) {
+			throw new SAXException("Content is not allowed outside the root element.");
+		}
+
+		currentNode.appendChild(doc.createTextNode(str));
+	}
+
+	private void parse(boolean isLast) throws SAXException {
+		while (position < buffer.length()) {
+			int end;
+
+			if (buffer.charAt(position) != '<') {
+				end = buffer.indexOf("<", Math.max(position, scanPosition));
+				if (end < 0) {
+					if (!isLast) {
+						scanPosition = buffer.length();
+						break;
+					}
+					end = buffer.length();
+				}
+				appendText(buffer, position, end, false);
+			} else if (startsWith("<!--")) {
+				end = findEnd("<!--", "-->");
+				if (end < 0) {
+					break;
+				}
+				flushText();
+				currentNode.appendChild(doc.createComment(buffer.substring(position + 4, end - 3)));
+			} else if (startsWith("<![CDATA[")) {
+				end = findEnd("<![CDATA[", "]]>");
+				if (end < 0) {
+					break;
+				}
+				text.append(buffer, position + 9, end - 3);
+			} else if (startsWith("<?")) {
+				end = findEnd("<?", "?>");
+				if (end < 0) {
+					break;
+				}
+				flushText();
+				parseProcessingInstruction(buffer.substring(position + 2, end - 2));
+			} else if (startsWith("<!")) {
+				if (buffer.length() - position < 9 && !isLast) {
+					break;
+				}
+				throw new SAXException("Document type declarations are not supported.");
+			} else {
+				end = findTagEnd();
+				if (end < 0) {
+					break;
+				}
+				flushText();
+				parseTag(buffer.substring(position + 1, end - 1));
+			}
+
+			position = end;
+			scanPosition = end;
+			isFirstToken = false;
+		}
+
+		if (isLast) {
+			if (position < buffer.length()) {
+				throw new SAXException("Premature end of document.");
+			}
+			flushText();
+		}
+
+		if (position >= MIN_COMPACT_SIZE && position > buffer.length() / 2) {
+			buffer.delete(0, position);
+			scanPosition -= position;
+			position = 0;
+		}
+	}
+
+	private int findEnd(String prefix, String terminator) {
+		int end = buffer.indexOf(terminator,
+				Math.max(position + prefix.length(), scanPosition - terminator.length()));
+		if (end < 0) {
+			scanPosition = buffer.length();
+			return -1;
+		}
+		return end + terminator.length();
+	}
+
+	private int findTagEnd() {
+		for (int i = Math.max(position + 1, scanPosition); i < buffer.length(); i++) {
+			char c = buffer.charAt(i);
+
+			if (scanQuote != 0) {
+				if (c == scanQuote) {
+					scanQuote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				scanQuote = c;
+			} else if (c == '>') {
+				return i + 1;
+			}
+		}
+
+		scanPosition = buffer.length();
+		return -1;
+	}
+
+	private void parseAttributes(Element element, String tag, int start) throws SAXException {
+		int i = start;
+
+		while (true) {
+			while (i < tag.length() && Character.isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			if (i >= tag.length()) {
+				return;
+			}
+
+			int nameStart = i;
+			while (i < tag.length() && tag.charAt(i) != '=' && !Character.isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			String name = tag.substring(nameStart, i);
+
+			while (i < tag.length() && Character.isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			if (name.isEmpty() || i >= tag.length() || tag.charAt(i) != '=') {
+				throw new SAXException("Invalid attribute in element " + element.getTagName() + ".");
+			}
+			i++;
+
+			while (i < tag.length() && Character.isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			if (i >= tag.length() || (tag.charAt(i) != '"' && tag.charAt(i) != '\'')) {
+				throw new SAXException("Attribute value of " + name + " must be quoted.");
+			}
+
+			int valueEnd = tag.indexOf(tag.charAt(i), i + 1);
+			if (element.hasAttribute(name)) {
+				throw new SAXException("Attribute " + name + " is specified twice.");
+			}
+
+			appendText(tag, i + 1, valueEnd, true);
+			element.setAttribute(name, text.toString());
+			text.setLength(0);
+			i = valueEnd + 1;
+
+			if (i < tag.length() && !Character.isWhitespace(tag.charAt(i))) {
+				throw new SAXException("Attributes must be separated by whitespaces.");
+			}
+		}
+	}
+
+	private void parseProcessingInstruction(String content) throws SAXException {
+		int separator = 0;
+		while (separator < content.length() && !Character.isWhitespace(content.charAt(separator))) {
+			separator++;
+		}
+		String target = content.substring(0, separator);
+
+		if (target.equalsIgnoreCase("xml")) {
+			if (!isFirstToken || !target.equals("xml")) {
+				throw new SAXException("Invalid xml declaration.");
+			}
+		} else {
+			String data = content.substring(separator).trim();
+			currentNode.appendChild(doc.createProcessingInstruction(target, data));
+		}
+	}
+
+	private void parseTag(String tag) throws SAXException {
+		if (tag.startsWith("/")) {
+			String name = tag.substring(1).trim();
+			if (currentNode == doc || !name.equals(currentNode.getNodeName())) {
+				throw new SAXException("Unexpected end tag " + name + ".");
+			}
+			currentNode = currentNode.getParentNode();
+			return;
+		}
+
+		boolean isEmpty = tag.endsWith("/");
+		if (isEmpty) {
+			tag = tag.substring(0, tag.length() - 1);
+		}
+
+		int nameEnd = 0;
+		while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd))) {
+			nameEnd++;
+		}
+		if (nameEnd == 0) {
+			throw new SAXException("Missing element name.");
+		}
+		if (currentNode == doc && doc.getDocumentElement() != null) {
+			throw new SAXException("Only one root element is allowed.");
+		}
+
+		Element element = doc.createElement(tag.substring(0, nameEnd));
+		parseAttributes(element, tag, nameEnd);
+		currentNode.appendChild(element);
+
+		if (!isEmpty) {
+			currentNode = element;
+		}
+	}
+
+	private String resolveEntity(String name) throws SAXException {
+		if (name.equals("lt")) {
+			return "<";
+		} else if (name.equals("gt")) {
+			return ">";
+		} else if (name.equals("amp")) {
+			return "&";
+		} else if (name.equals("quot")) {
+			return "\"";
+		} else if (name.equals("apos")) {
+			return "'";
+		}
+
+		try {
+			if (name.startsWith("#x")) {
+				return new String(Character.toChars(Integer.parseInt(name.substring(2), 16)));
+			} else if (name.startsWith("#")) {
+				return new String(Character.toChars(Integer.parseInt(name.substring(1))));
+			}
+		} catch (IllegalArgumentException e) {
+			throw new SAXException("Invalid character reference &" + name + ";.", e);
+		}
+
+		throw new SAXException("Unknown entity &" + name + ";.");
+	}
+
+	private boolean isWhitespace(String str) {
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean startsWith(ByteBuffer input, byte[] prefix, boolean isPartial) {
+		int length = input.remaining();
+		if (isPartial != length < prefix.length) {
+			return false;
+		}
+
+		for (int i = 0; i < Math.min(length, prefix.length); i++) {
+			if (input.get(input.position() + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(String prefix) {
+		int length = Math.min(prefix.length(), buffer.length() - position);
+		for (int i = 0; i < length; i++) {
+			if (buffer.charAt(position + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
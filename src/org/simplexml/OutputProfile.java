@@ -0,0 +1,78 @@
+package org.simplexml;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class describes how a document is written: indented or compact, with
+ * or without xml declaration and in which encoding. Compact output contains
+ * no whitespace between the elements at all, which makes it the better choice
+ * for documents that are sent over the wire.
+ *
+ * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
+ */
+public final class OutputProfile {
+	/**
+	 * Indented output with xml declaration in UTF-8 (default).
+	 */
+	public static final OutputProfile PRETTY = new OutputProfile(true, true, StandardCharsets.UTF_8);
+
+	/**
+	 * Output without any whitespace between the elements, with xml
+	 * declaration in UTF-8.
+	 */
+	public static final OutputProfile COMPACT = new OutputProfile(false, true, StandardCharsets.UTF_8);
+
+	private final boolean isIndented;
+	private final boolean hasDeclaration;
+	private final Charset encoding;
+
+	/**
+	 * Creates a new output profile.
+	 *
+	 * @param isIndented
+	 *            true to put each element on a new line, indented by its
+	 *            depth
+	 * @param hasDeclaration
+	 *            true to start the document with the xml declaration
+	 * @param encoding
+	 *            character encoding of the document, characters that cannot
+	 *            be encoded are written as character references
+	 */
+	public OutputProfile(boolean isIndented, boolean hasDeclaration, Charset encoding) {
+		if (encoding == null) {
+			throw new IllegalArgumentException("Missing encoding.");
+		}
+
+		this.isIndented = isIndented;
+		this.hasDeclaration = hasDeclaration;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Checks whether the elements are written on separate, indented lines.
+	 *
+	 * @return true if the output is indented
+	 */
+	public boolean isIndented() {
+		return isIndented;
+	}
+
+	/**
+	 * Checks whether the document starts with the xml declaration.
+	 *
+	 * @return true if the declaration is written
+	 */
+	public boolean hasDeclaration() {
+		return hasDeclaration;
+	}
+
+	/**
+	 * Gets the character encoding of the document.
+	 *
+	 * @return encoding
+	 */
+	public Charset getEncoding() {
+		return encoding;
+	}
+}
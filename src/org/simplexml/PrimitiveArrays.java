@@ -0,0 +1,145 @@
+package org.simplexml;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Methods of this class convert arrays of primitive types to a compact base64
+ * string and back. The values are stored as little-endian block, so neither
+ * boxing nor one element per item is needed.
+ *
+ * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
+ */
+final class PrimitiveArrays {
+	private PrimitiveArrays() {
+	}
+
+	/**
+	 * Decodes the base64 string to an array.
+	 *
+	 * @param str
+	 *            base64 string
+	 * @param componentType
+	 *            primitive type of the array items
+	 *
+	 * @return array of the given component type
+	 *
+	 * @throws SAXException
+	 */
+	static Object decode(String str, Class<?> componentType) throws SAXException {
+		ByteBuffer buffer;
+		try {
+			buffer = ByteBuffer.wrap(Base64.getDecoder().decode(str.trim())).order(ByteOrder.LITTLE_ENDIAN);
+		} catch (IllegalArgumentException e) {
+			throw new SAXException("Invalid array content.", e);
+		}
+
+		if (buffer.remaining() % sizeOf(componentType) != 0) {
+			throw new SAXException("Invalid array content.");
+		}
+		int length = buffer.remaining() / sizeOf(componentType);
+
+		if (componentType == boolean.class) {
+			boolean[] values = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = buffer.get() != 0;
+			}
+			return values;
+		} else if (componentType == byte.class) {
+			byte[] values = new byte[length];
+			buffer.get(values);
+			return values;
+		} else if (componentType == char.class) {
+			char[] values = new char[length];
+			buffer.asCharBuffer().get(values);
+			return values;
+		} else if (componentType == double.class) {
+			double[] values = new double[length];
+			buffer.asDoubleBuffer().get(values);
+			return values;
+		} else if (componentType == float.class) {
+			float[] values = new float[length];
+			buffer.asFloatBuffer().get(values);
+			return values;
+		} else if (componentType == int.class) {
+			int[] values = new int[length];
+			buffer.asIntBuffer().get(values);
+			return values;
+		} else if (componentType == long.class) {
+			long[] values = new long[length];
+			buffer.asLongBuffer().get(values);
+			return values;
+		} else {
+			short[] values = new short[length];
+			buffer.asShortBuffer().get(values);
+			return values;
+		}
+	}
+
+	/**
+	 * Encodes the array to a base64 string.
+	 *
+	 * @param array
+	 *            array of a primitive type
+	 *
+	 * @return base64 string
+	 */
+	static String encode(Object array) {
+		ByteBuffer buffer;
+
+		if (array instanceof boolean[]) {
+			boolean[] values = (boolean[]) array;
+			buffer = ByteBuffer.allocate(values.length);
+			for (boolean value : values) {
+				buffer.put((byte) (value ? 1 : 0));
+			}
+		} else if (array instanceof byte[]) {
+			buffer = ByteBuffer.wrap((byte[]) array);
+		} else if (array instanceof char[]) {
+			char[] values = (char[]) array;
+			buffer = allocate(values.length, char.class);
+			buffer.asCharBuffer().put(values);
+		} else if (array instanceof double[]) {
+			double[] values = (double[]) array;
+			buffer = allocate(values.length, double.class);
+			buffer.asDoubleBuffer().put(values);
+		} else if (array instanceof float[]) {
+			float[] values = (float[]) array;
+			buffer = allocate(values.length, float.class);
+			buffer.asFloatBuffer().put(values);
+		} else if (array instanceof int[]) {
+			int[] values = (int[]) array;
+			buffer = allocate(values.length, int.class);
+			buffer.asIntBuffer().put(values);
+		} else if (array instanceof long[]) {
+			long[] values = (long[]) array;
+			buffer = allocate(values.length, long.class);
+			buffer.asLongBuffer().put(values);
+		} else {
+			short[] values = (short[]) array;
+			buffer = allocate(values.length, short.class);
+			buffer.asShortBuffer().put(values);
+		}
+
+		return Base64.getEncoder().encodeToString(buffer.array());
+	}
+
+	private static ByteBuffer allocate(int length, Class<?> componentType) {
+		return ByteBuffer.allocate(length * sizeOf(componentType)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int sizeOf(Class<?> componentType) {
+		if (componentType == boolean.class || componentType == byte.class) {
+			return 1;
+		} else if (componentType == char.class || componentType == short.class) {
+			return 2;
+		} else if (componentType == float.class || componentType == int.class) {
+			return 4;
+		} else {
+			return 8;
+		}
+	}
+}
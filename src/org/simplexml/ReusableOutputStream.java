@@ -0,0 +1,218 @@
+package org.simplexml;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that is kept per thread and reused for every
+ * serialization into a byte array or byte buffer. Together with its writer,
+ * it is allocated only once per thread instead of once per call. The encoder
+ * of the writer is reset for each call, so stateful encodings like UTF-16
+ * write their byte order mark every time.
+ * Buffers that have grown beyond a limit are not kept, so a single large
+ * document does not hold its memory forever.
+ *
+ * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
+ */
+final class ReusableOutputStream extends OutputStream {
+	private static final int INITIAL_CAPACITY = 8192;
+	private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+	private static final ThreadLocal<ReusableOutputStream> STREAMS = ThreadLocal
+			.withInitial(ReusableOutputStream::new);
+
+	private byte[] buf = new byte[INITIAL_CAPACITY];
+	private int count;
+	private EncodingWriter writer;
+	private boolean isInUse;
+
+	private ReusableOutputStream() {
+	}
+
+	/**
+	 * Gets the empty stream of the current thread. If the stream of the thread
+	 * is already in use, e.g. by a nested call, a new stream is returned.
+	 *
+	 * @return stream to be released after use
+	 */
+	static ReusableOutputStream acquire() {
+		ReusableOutputStream stream = STREAMS.get();
+		if (stream.isInUse) {
+			stream = new ReusableOutputStream();
+		}
+
+		stream.isInUse = true;
+		stream.count = 0;
+		return stream;
+	}
+
+	/**
+	 * Releases the stream, so it can be used again by the next call. Content
+	 * left in the writer by a failed call is discarded.
+	 */
+	void release() {
+		if (writer != null) {
+			writer.reset();
+		}
+
+		isInUse = false;
+		count = 0;
+		if (buf.length > MAX_RETAINED_CAPACITY) {
+			buf = new byte[INITIAL_CAPACITY];
+		}
+	}
+
+	/**
+	 * Gets the writer of this stream for the given encoding. The writer is
+	 * kept as long as the encoding does not change and is reset on release.
+	 * It must be flushed before the content is read.
+	 *
+	 * @param encoding
+	 *            character encoding
+	 *
+	 * @return buffered writer
+	 */
+	Writer getWriter(Charset encoding) {
+		if (writer == null || !encoding.equals(writer.encoder.charset())) {
+			writer = new EncodingWriter(encoding);
+		}
+		return writer;
+	}
+
+	/**
+	 * Gets the number of bytes written.
+	 *
+	 * @return size of the content
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Copies the content to a new array of the exact size.
+	 *
+	 * @return content
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	/**
+	 * Copies the content to the given buffer, starting at its position.
+	 *
+	 * @param buffer
+	 *            target buffer with enough remaining space
+	 */
+	void writeTo(ByteBuffer buffer) {
+		buffer.put(buf, 0, count);
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+		}
+	}
+
+	/**
+	 * Buffered writer that encodes its characters directly into the byte
+	 * buffer of the stream. Unlike an OutputStreamWriter, its encoder can be
+	 * reset for the next call.
+	 */
+	private final class EncodingWriter extends Writer {
+		private final CharsetEncoder encoder;
+		private final CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+		private EncodingWriter(Charset encoding) {
+			encoder = encoding.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		@Override
+		public void write(int c) throws CharacterCodingException {
+			if (!chars.hasRemaining()) {
+				encode();
+			}
+			chars.put((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws CharacterCodingException {
+			while (len > 0) {
+				if (!chars.hasRemaining()) {
+					encode();
+				}
+				int n = Math.min(len, chars.remaining());
+				chars.put(cbuf, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws CharacterCodingException {
+			while (len > 0) {
+				if (!chars.hasRemaining()) {
+					encode();
+				}
+				int n = Math.min(len, chars.remaining());
+				chars.put(str, off, off + n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws CharacterCodingException {
+			encode();
+		}
+
+		@Override
+		public void close() throws CharacterCodingException {
+			flush();
+		}
+
+		private void encode() throws CharacterCodingException {
+			chars.flip();
+			while (true) {
+				ByteBuffer bytes = ByteBuffer.wrap(buf, count, buf.length - count);
+				CoderResult coderResult = encoder.encode(chars, bytes, false);
+				count = bytes.position();
+
+				if (coderResult.isOverflow()) {
+					ensureCapacity(buf.length + 1);
+				} else if (coderResult.isError()) {
+					coderResult.throwException();
+				} else {
+					break;
+				}
+			}
+			chars.compact();
+		}
+
+		private void reset() {
+			chars.clear();
+			encoder.reset();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,122 @@
+package org.simplexml;
+
+/**
+ * This class provides a bounded table to deduplicate strings during
+ * deserialization. Equal text contents are mapped to the same string instance,
+ * so documents repeating the same short values (codes, names, states) retain
+ * only one copy of each value.
+ *
+ * The table has a fixed number of slots. If two different strings fall into
+ * the same slot, the newer one replaces the older one, so the memory used by
+ * the table itself never grows beyond its capacity.
+ *
+ * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
+ */
+public final class StringTable {
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final String[] entries;
+	private long lookupCount;
+	private long hitCount;
+	private int size;
+
+	/**
+	 * Creates a table with the default capacity.
+	 */
+	public StringTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a table with the given capacity.
+	 *
+	 * @param capacity
+	 *            maximum number of strings, rounded up to a power of two
+	 */
+	public StringTable(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity + ".");
+		}
+
+		int length = 1;
+		while (length < capacity) {
+			length <<= 1;
+		}
+		entries = new String[length];
+	}
+
+	/**
+	 * Clears all strings and statistics.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = null;
+		}
+		size = 0;
+		lookupCount = 0;
+		hitCount = 0;
+	}
+
+	/**
+	 * Gets the maximum number of strings held by the table.
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return entries.length;
+	}
+
+	/**
+	 * Gets the number of lookups that returned an already known string.
+	 *
+	 * @return number of hits
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the total number of lookups.
+	 *
+	 * @return number of lookups
+	 */
+	public synchronized long getLookupCount() {
+		return lookupCount;
+	}
+
+	/**
+	 * Returns the known instance of an equal string or remembers the given
+	 * string for further lookups.
+	 *
+	 * @param str
+	 *            string to deduplicate
+	 *
+	 * @return equal string from the table or the given string itself
+	 */
+	public synchronized String intern(String str) {
+		int hash = str.hashCode();
+		int index = (hash ^ (hash >>> 16)) & (entries.length - 1);
+		String entry = entries[index];
+
+		lookupCount++;
+		if (str.equals(entry)) {
+			hitCount++;
+			return entry;
+		}
+
+		if (entry == null) {
+			size++;
+		}
+		entries[index] = str;
+		return str;
+	}
+
+	/**
+	 * Gets the number of strings currently held by the table.
+	 *
+	 * @return number of strings
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
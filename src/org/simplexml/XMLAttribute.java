@@ -0,0 +1,20 @@
+package org.simplexml;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field to be stored as attribute of its owner element instead of a
+ * subelement. Only fields of basic types, dates, enums, files and strings can
+ * be stored as attributes, the annotation is ignored for all other fields.
+ *
+ * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XMLAttribute {
+}
@@ -1,29 +1,33 @@
 package org.simplexml;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
@@ -34,7 +38,16 @@ import org.xml.sax.SAXException;
  * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
  */
 public final class XMLHelper {
-	private static XPath xpath = XPathFactory.newInstance().newXPath();
+	private static final int INDENT_AMOUNT = 2;
+	private static final char[] SPACES = new char[64];
+
+	private static final ThreadLocal<XPath> XPATH = ThreadLocal
+			.withInitial(() -> XPathFactory.newInstance().newXPath());
+	private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<>();
+
+	static {
+		Arrays.fill(SPACES, ' ');
+	}
 
 	private XMLHelper() {
 	}
@@ -47,7 +60,7 @@ public final class XMLHelper {
 	 * @throws ParserConfigurationException
 	 */
 	public static Document createEmptyDocument() throws ParserConfigurationException {
-		return newDocumentBuilder().newDocument();
+		return getDocumentBuilder().newDocument();
 	}
 
 	/**
@@ -69,6 +82,51 @@ public final class XMLHelper {
 		}
 	}
 
+	/**
+	 * Gets the direct child elements with the given name. Unlike an XPath
+	 * query, only the siblings below the given node are visited.
+	 *
+	 * @param node
+	 *            the parent element
+	 * @param name
+	 *            element name
+	 *
+	 * @return list with zero, one or more elements
+	 */
+	public static List<Element> getChildElements(Node node, String name) {
+		List<Element> result = new ArrayList<>();
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals(name)) {
+				result.add((Element) child);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the direct child elements with one of the two given names in
+	 * document order, e.g. the alternating keys and values of a map.
+	 *
+	 * @param node
+	 *            the parent element
+	 * @param name
+	 *            first element name
+	 * @param otherName
+	 *            second element name
+	 *
+	 * @return list with zero, one or more elements
+	 */
+	public static List<Element> getChildElements(Node node, String name, String otherName) {
+		List<Element> result = new ArrayList<>();
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE
+					&& (child.getNodeName().equals(name) || child.getNodeName().equals(otherName))) {
+				result.add((Element) child);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Executes the XPath expression and returns the list of the corresponding
 	 * results.
@@ -83,7 +141,32 @@ public final class XMLHelper {
 	 * @throws XPathExpressionException
 	 */
 	public static NodeList getNodeList(Node node, String expression) throws XPathExpressionException {
-		return (NodeList) xpath.compile(expression).evaluate(node, XPathConstants.NODESET);
+		return (NodeList) XPATH.get().compile(expression).evaluate(node, XPathConstants.NODESET);
+	}
+
+	/**
+	 * Checks whether a string is a valid element or attribute name according
+	 * to the xml specification.
+	 *
+	 * @param name
+	 *            element or attribute name
+	 *
+	 * @return true if the name is not empty and contains only allowed
+	 *         characters
+	 */
+	public static boolean isValidName(String name) {
+		if (name.isEmpty()) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length();) {
+			int c = name.codePointAt(i);
+			if (i == 0 ? !isNameStartChar(c) : !isNameChar(c)) {
+				return false;
+			}
+			i += Character.charCount(c);
+		}
+		return true;
 	}
 
 	/**
@@ -121,7 +204,7 @@ public final class XMLHelper {
 	 */
 	public static Document parse(InputStream inputStream)
 			throws IOException, ParserConfigurationException, SAXException, XPathExpressionException {
-		Document doc = newDocumentBuilder().parse(inputStream);
+		Document doc = getDocumentBuilder().parse(inputStream);
 		stripWhitespaces(doc);
 		return doc;
 	}
@@ -140,13 +223,33 @@ public final class XMLHelper {
 	 */
 	public static void write(File file, Document document)
 			throws IOException, TransformerConfigurationException, TransformerException {
+		write(file, document, OutputProfile.PRETTY);
+	}
+
+	/**
+	 * Writes the given xml file with the given output profile.
+	 *
+	 * @param file
+	 *            path and name of the xml file
+	 * @param document
+	 *            document with the data
+	 * @param outputProfile
+	 *            indentation, declaration and encoding of the output
+	 *
+	 * @throws IOException
+	 * @throws TransformerConfigurationException
+	 * @throws TransformerException
+	 */
+	public static void write(File file, Document document, OutputProfile outputProfile)
+			throws IOException, TransformerConfigurationException, TransformerException {
 		try (FileOutputStream fos = new FileOutputStream(file)) {
-			write(fos, document);
+			write(fos, document, outputProfile);
 		}
 	}
 
 	/**
-	 * Writes the given xml stream.
+	 * Writes the given xml stream. The nodes are written iteratively, so
+	 * documents of any depth can be stored.
 	 *
 	 * @param outputStream
 	 *            data stream to store the xml structure
@@ -158,9 +261,59 @@ public final class XMLHelper {
 	 */
 	public static void write(OutputStream outputStream, Document document)
 			throws TransformerConfigurationException, TransformerException {
-		StreamResult result = new StreamResult(outputStream);
-		DOMSource source = new DOMSource(document);
-		newTransformer().transform(source, result);
+		write(outputStream, document, OutputProfile.PRETTY);
+	}
+
+	/**
+	 * Writes the given xml stream with the given output profile. The nodes
+	 * are written iteratively, so documents of any depth can be stored.
+	 *
+	 * @param outputStream
+	 *            data stream to store the xml structure
+	 * @param document
+	 *            document with the data
+	 * @param outputProfile
+	 *            indentation, declaration and encoding of the output
+	 *
+	 * @throws TransformerConfigurationException
+	 * @throws TransformerException
+	 */
+	public static void write(OutputStream outputStream, Document document, OutputProfile outputProfile)
+			throws TransformerConfigurationException, TransformerException {
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, outputProfile.getEncoding()));
+			write(writer, document, outputProfile);
+		} catch (IOException e) {
+			throw new TransformerException(e);
+		}
+	}
+
+	/**
+	 * Writes the given xml document to a character stream, which must encode
+	 * the characters in the encoding of the output profile. The writer is
+	 * flushed, but not closed.
+	 *
+	 * @param writer
+	 *            writer to store the xml structure
+	 * @param document
+	 *            document with the data
+	 * @param outputProfile
+	 *            indentation, declaration and encoding of the output
+	 *
+	 * @throws IOException
+	 */
+	static void write(Writer writer, Document document, OutputProfile outputProfile) throws IOException {
+		writeDocument(writer, document, outputProfile);
+		writer.flush();
+	}
+
+	private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder = DOCUMENT_BUILDER.get();
+		if (builder == null) {
+			builder = newDocumentBuilder();
+			DOCUMENT_BUILDER.set(builder);
+		}
+		return builder;
 	}
 
 	private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
@@ -172,22 +325,237 @@ public final class XMLHelper {
 		return factory.newDocumentBuilder();
 	}
 
-	private static Transformer newTransformer() throws TransformerConfigurationException {
-		TransformerFactory factory = TransformerFactory.newInstance();
-		Transformer transformer = factory.newTransformer();
-		transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-		transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", Integer.toString(2));
-		return transformer;
+	private static boolean hasOnlyText(Node node) {
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.TEXT_NODE && child.getNodeType() != Node.CDATA_SECTION_NODE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeDocument(Writer writer, Document document, OutputProfile outputProfile)
+			throws IOException {
+		Charset encoding = outputProfile.getEncoding();
+		String lineSeparator = outputProfile.isIndented() ? System.lineSeparator() : null;
+		CharsetEncoder encoder = encoding.name().startsWith("UTF-") ? null : encoding.newEncoder();
+		boolean hasOutput = outputProfile.hasDeclaration();
+
+		if (outputProfile.hasDeclaration()) {
+			writer.write("<?xml version=\"1.0\" encoding=\"" + encoding.name() + "\" standalone=\""
+					+ (document.getXmlStandalone() ? "yes" : "no") + "\"?>");
+		}
+
+		Node node = document.getFirstChild();
+		int depth = 0;
+
+		while (node != null) {
+			boolean descend = false;
+
+			if (lineSeparator != null && (depth > 0 || hasOutput) && isWritten(node)) {
+				writeIndent(writer, lineSeparator, depth);
+			}
+			hasOutput = hasOutput || isWritten(node);
+
+			switch (node.getNodeType()) {
+			case Node.ELEMENT_NODE:
+				writer.write('<');
+				writer.write(node.getNodeName());
+				writeAttributes(writer, node, encoder);
+
+				if (hasOnlyText(node) && node.getTextContent().isEmpty()) {
+					writer.write("/>");
+				} else if (hasOnlyText(node)) {
+					writer.write('>');
+					for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+						writeText(writer, child, lineSeparator, encoder);
+					}
+					writeEndTag(writer, node);
+				} else {
+					writer.write('>');
+					descend = true;
+				}
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				writeText(writer, node, lineSeparator, encoder);
+				break;
+			case Node.COMMENT_NODE:
+				writer.write("<!--" + node.getNodeValue() + "-->");
+				break;
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				writer.write("<?" + node.getNodeName() + " " + node.getNodeValue() + "?>");
+				break;
+			default:
+				break;
+			}
+
+			if (descend) {
+				node = node.getFirstChild();
+				depth++;
+				continue;
+			}
+
+			while (node.getNextSibling() == null && depth > 0) {
+				node = node.getParentNode();
+				depth--;
+				if (lineSeparator != null) {
+					writeIndent(writer, lineSeparator, depth);
+				}
+				writeEndTag(writer, node);
+			}
+
+			node = node.getNextSibling();
+		}
+
+		if (lineSeparator != null) {
+			writer.write(lineSeparator);
+		}
+	}
+
+	private static boolean isWritten(Node node) {
+		switch (node.getNodeType()) {
+		case Node.ELEMENT_NODE:
+		case Node.TEXT_NODE:
+		case Node.CDATA_SECTION_NODE:
+		case Node.COMMENT_NODE:
+		case Node.PROCESSING_INSTRUCTION_NODE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static void writeAttributes(Writer writer, Node node, CharsetEncoder encoder) throws IOException {
+		NamedNodeMap attributes = node.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Node attrNode = attributes.item(i);
+			writer.write(' ');
+			writer.write(attrNode.getNodeName());
+			writer.write("=\"");
+			writeEscaped(writer, attrNode.getNodeValue(), true, null, encoder);
+			writer.write('"');
+		}
+	}
+
+	private static void writeEndTag(Writer writer, Node node) throws IOException {
+		writer.write("</");
+		writer.write(node.getNodeName());
+		writer.write('>');
+	}
+
+	private static void writeEscaped(Writer writer, String str, boolean isAttribute, String lineSeparator,
+			CharsetEncoder encoder) throws IOException {
+		int start = 0;
+
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			String entity;
+
+			if (Character.isHighSurrogate(c) && i + 1 < str.length()) {
+				writer.write(str, start, i - start);
+				writer.write("&#" + Character.toCodePoint(c, str.charAt(++i)) + ";");
+				start = i + 1;
+				continue;
+			}
+
+			switch (c) {
+			case '<':
+				entity = "&lt;";
+				break;
+			case '>':
+				entity = "&gt;";
+				break;
+			case '&':
+				entity = "&amp;";
+				break;
+			case '\r':
+				entity = "&#13;";
+				break;
+			case '"':
+				entity = isAttribute ? "&quot;" : null;
+				break;
+			case '\n':
+				entity = isAttribute ? "&#10;" : lineSeparator;
+				break;
+			case '\t':
+				entity = isAttribute ? "&#9;" : null;
+				break;
+			default:
+				entity = encoder != null && c >= 0x80 && !encoder.canEncode(c) ? "&#" + (int) c + ";" : null;
+				break;
+			}
+
+			if (entity != null) {
+				writer.write(str, start, i - start);
+				writer.write(entity);
+				start = i + 1;
+			}
+		}
+
+		writer.write(str, start, str.length() - start);
+	}
+
+	private static void writeIndent(Writer writer, String lineSeparator, int depth) throws IOException {
+		writer.write(lineSeparator);
+		for (int i = depth * INDENT_AMOUNT; i > 0; i -= SPACES.length) {
+			writer.write(SPACES, 0, Math.min(i, SPACES.length));
+		}
+	}
+
+	private static void writeText(Writer writer, Node node, String lineSeparator, CharsetEncoder encoder)
+			throws IOException {
+		if (node.getNodeType() == Node.CDATA_SECTION_NODE) {
+			writer.write("<![CDATA[" + node.getNodeValue() + "]]>");
+		} else {
+			writeEscaped(writer, node.getNodeValue(), false, lineSeparator, encoder);
+		}
+	}
+
+	private static void stripWhitespaces(Document document) {
+		Node node = document.getFirstChild();
+
+		while (node != null) {
+			Node nextNode = node.getFirstChild();
+			if (nextNode == null) {
+				nextNode = node;
+				while (nextNode != null && nextNode.getNextSibling() == null) {
+					nextNode = nextNode.getParentNode();
+				}
+				if (nextNode != null) {
+					nextNode = nextNode.getNextSibling();
+				}
+			}
+
+			if ((node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE)
+					&& isWhitespace(node.getNodeValue())) {
+				node.getParentNode().removeChild(node);
+			}
+
+			node = nextNode;
+		}
+	}
+
+	private static boolean isNameChar(int c) {
+		return isNameStartChar(c) || c == '-' || c == '.' || (c >= '0' && c <= '9') || c == 0xB7
+				|| (c >= 0x300 && c <= 0x36F) || (c >= 0x203F && c <= 0x2040);
+	}
+
+	private static boolean isNameStartChar(int c) {
+		return c == ':' || (c >= 'A' && c <= 'Z') || c == '_' || (c >= 'a' && c <= 'z')
+				|| (c >= 0xC0 && c <= 0xD6) || (c >= 0xD8 && c <= 0xF6) || (c >= 0xF8 && c <= 0x2FF)
+				|| (c >= 0x370 && c <= 0x37D) || (c >= 0x37F && c <= 0x1FFF) || (c >= 0x200C && c <= 0x200D)
+				|| (c >= 0x2070 && c <= 0x218F) || (c >= 0x2C00 && c <= 0x2FEF) || (c >= 0x3001 && c <= 0xD7FF)
+				|| (c >= 0xF900 && c <= 0xFDCF) || (c >= 0xFDF0 && c <= 0xFFFD) || (c >= 0x10000 && c <= 0xEFFFF);
 	}
 
-	private static void stripWhitespaces(Document document) throws XPathExpressionException {
-		NodeList emptyTextNodes = (NodeList) xpath.compile("//text()[normalize-space(.) = '']").evaluate(document,
-				XPathConstants.NODESET);
-		for (int i = 0; i < emptyTextNodes.getLength(); i++) {
-			Node emptyTextNode = emptyTextNodes.item(i);
-			emptyTextNode.getParentNode().removeChild(emptyTextNode);
+	private static boolean isWhitespace(String str) {
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return false;
+			}
 		}
+		return true;
 	}
 }
\ No newline at end of file
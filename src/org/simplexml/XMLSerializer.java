@@ -1,27 +1,46 @@
 package org.simplexml;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputValidation;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 import org.xml.sax.SAXException;
 
@@ -29,12 +48,45 @@ import org.xml.sax.SAXException;
  * This class provides methods to store Java objcts in a xml file or load a xml
  * file and map its content back to a Java object.
  *
+ * The settings apply to all threads. Each call reads them once when it starts,
+ * so changing a setting does not affect calls that are already running.
+ *
  * @author <a href="mailto:acsf.dev@gmail.com">Kay Schröer</a>
  */
 public final class XMLSerializer {
-	private static Document doc;
+	private static final String ID_ATTRIBUTE = "id";
+	private static final String REF_ATTRIBUTE = "ref";
+	private static final String ENCODING_ATTRIBUTE = "encoding";
+	private static final String BASE64_ENCODING = "base64";
+	private static final String CHANGE_ATTRIBUTE = "change";
+	private static final String INDEX_ATTRIBUTE = "index";
+	private static final String ADD_CHANGE = "add";
+	private static final String REMOVE_CHANGE = "remove";
+	private static final String SET_CHANGE = "set";
+	private static final String BATCH_NODE = "Batch";
+
+	private static volatile boolean attributeMode = false;
+	private static volatile boolean compactArrays = false;
+	private static volatile boolean referenceTracking = false;
+	private static volatile OutputProfile outputProfile = OutputProfile.PRETTY;
+	private static volatile StringTable stringTable = null;
+
+	private final boolean isAttributeMode = attributeMode;
+	private final boolean isCompactArrays = compactArrays;
+	private final boolean isReferenceTracking = referenceTracking;
+	private final StringTable stringTableInUse = stringTable;
+
+	private Document doc;
+	private Map<Object, Element> writtenObjects = new IdentityHashMap<>();
+	private Map<String, Object> readObjects = new HashMap<>();
+	private int lastReferenceId = 0;
+	private Map<Object, Object> diffedObjects = new IdentityHashMap<>();
+	private Map<Object, Object> patchedObjects = new IdentityHashMap<>();
 
 	private static final Map<Class<?>, Class<?>> PRIMITIVES_TO_WRAPPERS;
+	private static final Map<Class<?>, ClassPlan> CLASS_PLANS = new ConcurrentHashMap<>();
+	private static final Set<Class<?>> REGISTERED_CLASSES = new ConcurrentSkipListSet<>(
+			Comparator.comparing(Class::getName));
 
 	static {
 		PRIMITIVES_TO_WRAPPERS = new HashMap<>();
@@ -51,6 +103,156 @@ public final class XMLSerializer {
 	private XMLSerializer() {
 	}
 
+	/**
+	 * Applies the changes from a delta file to an object.
+	 *
+	 * @param file
+	 *            path and name of a xml file created by serializeDelta
+	 * @param obj
+	 *            object to update, usually equal to the previous version
+	 *
+	 * @throws Exception
+	 */
+	public static void applyDelta(File file, Object obj) throws Exception {
+		applyDelta(XMLHelper.parse(file), obj);
+	}
+
+	/**
+	 * Applies the changes from a delta stream to an object.
+	 *
+	 * @param inputStream
+	 *            data stream containing the xml structure created by
+	 *            serializeDelta
+	 * @param obj
+	 *            object to update, usually equal to the previous version
+	 *
+	 * @throws Exception
+	 */
+	public static void applyDelta(InputStream inputStream, Object obj) throws Exception {
+		applyDelta(XMLHelper.parse(inputStream), obj);
+	}
+
+	/**
+	 * Applies the changes from an already parsed delta document to an object.
+	 *
+	 * @param document
+	 *            document containing the xml structure created by
+	 *            serializeDelta
+	 * @param obj
+	 *            object to update, usually equal to the previous version
+	 *
+	 * @throws Exception
+	 */
+	static void applyDelta(Document document, Object obj) throws Exception {
+		XMLSerializer serializer = new XMLSerializer();
+		serializer.doc = document;
+		serializer.applyDeltaThat(obj);
+	}
+
+	/**
+	 * Deserializes from a part of a byte array, e.g. the payload of a
+	 * message. The bytes are read in place, without copying them.
+	 *
+	 * @param bytes
+	 *            array containing the xml structure
+	 * @param offset
+	 *            index of the first byte of the xml structure
+	 * @param length
+	 *            number of bytes of the xml structure
+	 * @param clazz
+	 *            expected type
+	 *
+	 * @return deserialized object
+	 *
+	 * @throws Exception
+	 */
+	public static Object deserialize(byte[] bytes, int offset, int length, Class<?> clazz) throws Exception {
+		return deserialize(XMLHelper.parse(new ByteArrayInputStream(bytes, offset, length)), clazz);
+	}
+
+	/**
+	 * Deserializes all objects of a batch file created by serializeBatch.
+	 *
+	 * @param file
+	 *            path and name of a xml file
+	 * @param classes
+	 *            expected types, the objects are mapped to them by their
+	 *            simple class names
+	 *
+	 * @return deserialized objects in the order of the batch
+	 *
+	 * @throws Exception
+	 */
+	public static List<Object> deserializeBatch(File file, Class<?>... classes) throws Exception {
+		return deserializeBatch(XMLHelper.parse(file), classes);
+	}
+
+	/**
+	 * Deserializes all objects of a batch stream created by serializeBatch.
+	 * The whole batch is parsed at once.
+	 *
+	 * @param inputStream
+	 *            data stream containing the xml structure
+	 * @param classes
+	 *            expected types, the objects are mapped to them by their
+	 *            simple class names
+	 *
+	 * @return deserialized objects in the order of the batch
+	 *
+	 * @throws Exception
+	 */
+	public static List<Object> deserializeBatch(InputStream inputStream, Class<?>... classes) throws Exception {
+		return deserializeBatch(XMLHelper.parse(inputStream), classes);
+	}
+
+	/**
+	 * Deserializes all objects of an already parsed batch document.
+	 *
+	 * @param document
+	 *            document containing the xml structure
+	 * @param classes
+	 *            expected types, the objects are mapped to them by their
+	 *            simple class names
+	 *
+	 * @return deserialized objects in the order of the batch
+	 *
+	 * @throws Exception
+	 */
+	static List<Object> deserializeBatch(Document document, Class<?>... classes) throws Exception {
+		Map<String, Class<?>> classRegistry = new HashMap<>();
+		for (Class<?> clazz : classes) {
+			Class<?> otherClass = classRegistry.put(clazz.getSimpleName(), clazz);
+			if (otherClass != null && otherClass != clazz) {
+				throw new IllegalArgumentException("Ambiguous class name " + clazz.getSimpleName() + ".");
+			}
+		}
+
+		Element rootNode = document.getDocumentElement();
+		if (!rootNode.getNodeName().equals(BATCH_NODE)) {
+			throw new SAXException("Wrong root node.");
+		}
+
+		XMLSerializer serializer = new XMLSerializer();
+		serializer.doc = document;
+
+		List<Object> result = new ArrayList<>();
+		for (Node node = rootNode.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+
+			Class<?> clazz = classRegistry.get(node.getNodeName());
+			if (clazz == null) {
+				throw new SAXException("Unknown type " + node.getNodeName() + ".");
+			}
+
+			serializer.readObjects.clear();
+			result.add(serializer.resolveDomTree(clazz, (Element) node));
+		}
+
+		return result;
+	}
+
 	/**
 	 * Deserializes from a file.
 	 *
@@ -64,8 +266,7 @@ public final class XMLSerializer {
 	 * @throws Exception
 	 */
 	public static Object deserialize(File file, Class<?> clazz) throws Exception {
-		doc = XMLHelper.parse(file);
-		return deserializeThat(clazz);
+		return deserialize(XMLHelper.parse(file), clazz);
 	}
 
 	/**
@@ -81,8 +282,193 @@ public final class XMLSerializer {
 	 * @throws Exception
 	 */
 	public static Object deserialize(InputStream inputStream, Class<?> clazz) throws Exception {
-		doc = XMLHelper.parse(inputStream);
-		return deserializeThat(clazz);
+		return deserialize(XMLHelper.parse(inputStream), clazz);
+	}
+
+	/**
+	 * Deserializes from an already parsed document.
+	 *
+	 * @param document
+	 *            document containing the xml structure
+	 * @param clazz
+	 *            expected type
+	 *
+	 * @return deserialized object
+	 *
+	 * @throws Exception
+	 */
+	static Object deserialize(Document document, Class<?> clazz) throws Exception {
+		XMLSerializer serializer = new XMLSerializer();
+		serializer.doc = document;
+		return serializer.deserializeThat(clazz);
+	}
+
+	/**
+	 * Gets the profile used to write serialized documents.
+	 *
+	 * @return output profile
+	 */
+	public static OutputProfile getOutputProfile() {
+		return outputProfile;
+	}
+
+	/**
+	 * Gets the table used to deduplicate strings during deserialization.
+	 *
+	 * @return string table or null if strings are not deduplicated
+	 */
+	public static StringTable getStringTable() {
+		return stringTable;
+	}
+
+	/**
+	 * Checks whether fields of basic types are written as attributes.
+	 *
+	 * @return true if all scalar fields are stored as attributes
+	 */
+	public static boolean isAttributeMode() {
+		return attributeMode;
+	}
+
+	/**
+	 * Checks whether arrays of primitive types are written in compact form.
+	 *
+	 * @return true if primitive arrays are stored as base64 block
+	 */
+	public static boolean isCompactArrays() {
+		return compactArrays;
+	}
+
+	/**
+	 * Checks whether shared references are tracked during serialization.
+	 *
+	 * @return true if each object is written only once
+	 */
+	public static boolean isReferenceTracking() {
+		return referenceTracking;
+	}
+
+	/**
+	 * Enables or disables the attribute mode. If enabled, all fields of basic
+	 * types, dates, enums, files and strings are stored as attributes of their
+	 * owner element, as if they were marked with {@link XMLAttribute}. Null
+	 * values are omitted. The deserializer always accepts both attributes and
+	 * subelements.
+	 *
+	 * @param attributeMode
+	 *            true to store all scalar fields as attributes
+	 */
+	public static void setAttributeMode(boolean attributeMode) {
+		XMLSerializer.attributeMode = attributeMode;
+	}
+
+	/**
+	 * Enables or disables the compact form for arrays of primitive types. If
+	 * enabled, such an array is stored as a single element with an "encoding"
+	 * attribute whose text is the base64 string of the little-endian values,
+	 * instead of one element per item. The deserializer always recognizes
+	 * both forms.
+	 *
+	 * @param compactArrays
+	 *            true to store primitive arrays as base64 block
+	 */
+	public static void setCompactArrays(boolean compactArrays) {
+		XMLSerializer.compactArrays = compactArrays;
+	}
+
+	/**
+	 * Sets the profile used to write serialized documents, e.g.
+	 * {@link OutputProfile#COMPACT} to omit all whitespace between the
+	 * elements. The default is {@link OutputProfile#PRETTY}. The profile
+	 * applies to all serialize methods.
+	 *
+	 * @param outputProfile
+	 *            indentation, declaration and encoding of the output
+	 */
+	public static void setOutputProfile(OutputProfile outputProfile) {
+		if (outputProfile == null) {
+			throw new IllegalArgumentException("Missing output profile.");
+		}
+		XMLSerializer.outputProfile = outputProfile;
+	}
+
+	/**
+	 * Enables or disables the tracking of shared references. If enabled, an
+	 * object that is reachable from several places is written only once and
+	 * all further occurrences are stored as empty elements with a "ref"
+	 * attribute pointing to the "id" attribute of the first occurrence. This
+	 * also allows cyclic object graphs to be serialized. The deserializer
+	 * always resolves such references and restores the shared identity.
+	 *
+	 * @param referenceTracking
+	 *            true to write each object only once
+	 */
+	public static void setReferenceTracking(boolean referenceTracking) {
+		XMLSerializer.referenceTracking = referenceTracking;
+	}
+
+	/**
+	 * Sets the table used to deduplicate strings during deserialization. All
+	 * text contents mapped to strings, including map keys, are passed through
+	 * the table, so equal values share a single instance. The table is kept
+	 * between calls.
+	 *
+	 * @param stringTable
+	 *            string table or null to disable the deduplication
+	 */
+	public static void setStringTable(StringTable stringTable) {
+		XMLSerializer.stringTable = stringTable;
+	}
+
+	/**
+	 * Registers classes in advance. For each class and all types reachable
+	 * through its fields, array items, collection items and map entries, the
+	 * mapping plan (fields, node names, type arguments, constructors and
+	 * valueOf methods) is built and validated at once instead of on first
+	 * use, and the xml parser is loaded. This moves the setup costs out of
+	 * the first call, which matters for short-lived processes. The
+	 * registered classes can be written as reflection configuration for a
+	 * native image. If a reachable class fails the check, none of the given
+	 * classes are registered.
+	 *
+	 * @param classes
+	 *            root classes to register
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a reachable class cannot be deserialized, e.g. because
+	 *             it has no public default constructor or a collection has
+	 *             no concrete type arguments
+	 * @throws Exception
+	 */
+	public static void register(Class<?>... classes) throws Exception {
+		Deque<Class<?>> pending = new ArrayDeque<>(Arrays.asList(classes));
+		Set<Class<?>> validatedClasses = new HashSet<>();
+
+		while (!pending.isEmpty()) {
+			Class<?> clazz = pending.pop();
+			if (clazz.isPrimitive()) {
+				clazz = PRIMITIVES_TO_WRAPPERS.get(clazz);
+			}
+
+			if (REGISTERED_CLASSES.contains(clazz) || !validatedClasses.add(clazz)) {
+				continue;
+			}
+
+			ClassPlan plan = ClassPlan.of(clazz);
+			plan.validate();
+
+			if (plan.fields != null) {
+				for (Field field : plan.fields) {
+					pending.push(field.getType());
+				}
+			}
+			if (plan.itemClass != null) {
+				pending.addAll(Arrays.asList(plan.itemClass));
+			}
+		}
+
+		REGISTERED_CLASSES.addAll(validatedClasses);
+		XMLHelper.createEmptyDocument();
 	}
 
 	/**
@@ -96,8 +482,7 @@ public final class XMLSerializer {
 	 * @throws Exception
 	 */
 	public static void serialize(File file, Object obj) throws Exception {
-		serializeThat(obj);
-		XMLHelper.write(file, doc);
+		XMLHelper.write(file, serialize(obj), outputProfile);
 	}
 
 	/**
@@ -111,11 +496,281 @@ public final class XMLSerializer {
 	 * @throws Exception
 	 */
 	public static void serialize(OutputStream outputStream, Object obj) throws Exception {
-		serializeThat(obj);
-		XMLHelper.write(outputStream, doc);
+		XMLHelper.write(outputStream, serialize(obj), outputProfile);
 	}
 
-	private static Object deserializeThat(Class<?> clazz) throws Exception {
+	/**
+	 * Serializes to a new document.
+	 *
+	 * @param obj
+	 *            any object to serialize
+	 *
+	 * @return document
+	 *
+	 * @throws Exception
+	 */
+	static Document serialize(Object obj) throws Exception {
+		XMLSerializer serializer = new XMLSerializer();
+		serializer.serializeThat(obj);
+		return serializer.doc;
+	}
+
+	/**
+	 * Serializes into a byte buffer, starting at its current position. The
+	 * xml structure is written to a buffer of the current thread, which is
+	 * reused by the next call, and then copied into the given buffer.
+	 *
+	 * @param buffer
+	 *            target buffer, its position is advanced by the number of
+	 *            bytes written
+	 * @param obj
+	 *            any object to serialize
+	 *
+	 * @return number of bytes written
+	 *
+	 * @throws java.nio.BufferOverflowException
+	 *             if the remaining space of the buffer is too small, the
+	 *             buffer is left unchanged in this case
+	 * @throws Exception
+	 */
+	public static int serializeInto(ByteBuffer buffer, Object obj) throws Exception {
+		ReusableOutputStream outputStream = ReusableOutputStream.acquire();
+		try {
+			OutputProfile profile = outputProfile;
+			XMLHelper.write(outputStream.getWriter(profile.getEncoding()), serialize(obj), profile);
+			outputStream.writeTo(buffer);
+			return outputStream.size();
+		} finally {
+			outputStream.release();
+		}
+	}
+
+	/**
+	 * Serializes to a byte array. The xml structure is written to a buffer of
+	 * the current thread, which is reused by the next call, so only the
+	 * returned array is allocated for the output.
+	 *
+	 * @param obj
+	 *            any object to serialize
+	 *
+	 * @return byte array containing the xml structure
+	 *
+	 * @throws Exception
+	 */
+	public static byte[] serializeToBytes(Object obj) throws Exception {
+		ReusableOutputStream outputStream = ReusableOutputStream.acquire();
+		try {
+			OutputProfile profile = outputProfile;
+			XMLHelper.write(outputStream.getWriter(profile.getEncoding()), serialize(obj), profile);
+			return outputStream.toByteArray();
+		} finally {
+			outputStream.release();
+		}
+	}
+
+	/**
+	 * Serializes many independent objects of any types into one batch file.
+	 * The objects are written one after another below a common root, each
+	 * named by its simple class name, so the declaration and the root are
+	 * written only once.
+	 *
+	 * @param file
+	 *            path and name of the xml file
+	 * @param objects
+	 *            objects to serialize
+	 *
+	 * @throws Exception
+	 */
+	public static void serializeBatch(File file, Collection<?> objects) throws Exception {
+		XMLHelper.write(file, serializeBatch(objects), outputProfile);
+	}
+
+	/**
+	 * Serializes many independent objects of any types into one batch
+	 * stream. The objects are written one after another below a common root,
+	 * each named by its simple class name, so the declaration and the root
+	 * are written only once.
+	 *
+	 * @param outputStream
+	 *            data stream to store the xml structure
+	 * @param objects
+	 *            objects to serialize
+	 *
+	 * @throws Exception
+	 */
+	public static void serializeBatch(OutputStream outputStream, Collection<?> objects) throws Exception {
+		XMLHelper.write(outputStream, serializeBatch(objects), outputProfile);
+	}
+
+	/**
+	 * Serializes many independent objects of any types into a new batch
+	 * document. Each object is an own unit for reference tracking.
+	 *
+	 * @param objects
+	 *            objects to serialize
+	 *
+	 * @return document
+	 *
+	 * @throws Exception
+	 */
+	static Document serializeBatch(Collection<?> objects) throws Exception {
+		Document document = XMLHelper.createEmptyDocument();
+		document.setStrictErrorChecking(false);
+		Element rootNode = document.createElement(BATCH_NODE);
+		document.appendChild(rootNode);
+
+		XMLSerializer serializer = new XMLSerializer();
+		serializer.doc = document;
+
+		for (Object obj : objects) {
+			if (obj == null) {
+				throw new IllegalArgumentException("Batch must not contain null.");
+			}
+
+			Element node = document.createElement(ClassPlan.of(obj.getClass()).getNodeName());
+			rootNode.appendChild(node);
+
+			serializer.writtenObjects.clear();
+			serializer.buildDomTree(obj, node);
+		}
+
+		return document;
+	}
+
+	/**
+	 * Serializes the changes between two versions of an object to a file.
+	 * Only changed fields, array and list items and map entries are written,
+	 * the result can be applied to the previous version with applyDelta.
+	 *
+	 * @param file
+	 *            path and name of the xml file
+	 * @param previous
+	 *            previous version of the object
+	 * @param current
+	 *            current version of the object, must be of the same class
+	 *
+	 * @throws Exception
+	 */
+	public static void serializeDelta(File file, Object previous, Object current) throws Exception {
+		XMLHelper.write(file, serializeDelta(previous, current), outputProfile);
+	}
+
+	/**
+	 * Serializes the changes between two versions of an object to a stream.
+	 * Only changed fields, array and list items and map entries are written,
+	 * the result can be applied to the previous version with applyDelta.
+	 *
+	 * @param outputStream
+	 *            data stream to store the xml structure
+	 * @param previous
+	 *            previous version of the object
+	 * @param current
+	 *            current version of the object, must be of the same class
+	 *
+	 * @throws Exception
+	 */
+	public static void serializeDelta(OutputStream outputStream, Object previous, Object current)
+			throws Exception {
+		XMLHelper.write(outputStream, serializeDelta(previous, current), outputProfile);
+	}
+
+	/**
+	 * Serializes the changes between two versions of an object to a new
+	 * document.
+	 *
+	 * @param previous
+	 *            previous version of the object
+	 * @param current
+	 *            current version of the object, must be of the same class
+	 *
+	 * @return document
+	 *
+	 * @throws Exception
+	 */
+	static Document serializeDelta(Object previous, Object current) throws Exception {
+		if (previous.getClass() != current.getClass()) {
+			throw new IllegalArgumentException("Both versions must be of the same class.");
+		}
+
+		XMLSerializer serializer = new XMLSerializer();
+		serializer.serializeDeltaThat(previous, current);
+		return serializer.doc;
+	}
+
+	/**
+	 * Writes the reflection configuration of all registered classes to a
+	 * file. The file can be passed to the GraalVM native-image tool, e.g. as
+	 * META-INF/native-image/reflect-config.json, so that the serializer can
+	 * access these classes in a native image.
+	 *
+	 * @param file
+	 *            path and name of the json file
+	 *
+	 * @throws IOException
+	 */
+	public static void writeReflectionConfig(File file) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			writeReflectionConfig(fos);
+		}
+	}
+
+	/**
+	 * Writes the reflection configuration of all registered classes to a
+	 * stream. The content can be passed to the GraalVM native-image tool,
+	 * e.g. as META-INF/native-image/reflect-config.json, so that the
+	 * serializer can access these classes in a native image.
+	 *
+	 * @param outputStream
+	 *            data stream to store the json structure
+	 *
+	 * @throws IOException
+	 */
+	public static void writeReflectionConfig(OutputStream outputStream) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		String separator = "";
+
+		writer.write("[");
+		for (Class<?> clazz : REGISTERED_CLASSES) {
+			ClassPlan plan = ClassPlan.of(clazz);
+			if (!plan.isReflective()) {
+				continue;
+			}
+
+			writer.write(separator);
+			writer.write("\n  {\n    \"name\": \"" + clazz.getName() + "\"");
+			if (plan.fields != null) {
+				writer.write(",\n    \"allDeclaredFields\": true");
+			}
+
+			List<String> methods = new ArrayList<>();
+			if (plan.constructor != null) {
+				methods.add("{ \"name\": \"<init>\", \"parameterTypes\": [] }");
+			}
+			if (plan.valueOfMethod != null) {
+				methods.add("{ \"name\": \"valueOf\", \"parameterTypes\": [\"java.lang.String\"] }");
+			}
+			if (!methods.isEmpty()) {
+				writer.write(",\n    \"methods\": [\n      " + String.join(",\n      ", methods) + "\n    ]");
+			}
+
+			writer.write("\n  }");
+			separator = ",";
+		}
+		writer.write("\n]\n");
+		writer.flush();
+	}
+
+	private void applyDeltaThat(Object obj) throws Exception {
+		Element rootNode = doc.getDocumentElement();
+		String rootNodeName = obj.getClass().getPackage().getName() + "." + rootNode.getNodeName();
+		if (!rootNodeName.equals(obj.getClass().getName())) {
+			throw new SAXException("Wrong root node.");
+		}
+
+		applyDomTree(obj, rootNode);
+	}
+
+	private Object deserializeThat(Class<?> clazz) throws Exception {
 		Element rootNode = doc.getDocumentElement();
 		String rootNodeName = clazz.getPackage().getName() + "." + rootNode.getNodeName();
 		if (!rootNodeName.equals(clazz.getName())) {
@@ -126,69 +781,243 @@ public final class XMLSerializer {
 		return obj;
 	}
 
-	private static void serializeThat(Object obj) throws Exception {
+	private void serializeThat(Object obj) throws Exception {
 		doc = XMLHelper.createEmptyDocument();
-		Element rootNode = doc.createElement(obj.getClass().getSimpleName());
+		doc.setStrictErrorChecking(false);
+		Element rootNode = doc.createElement(ClassPlan.of(obj.getClass()).getNodeName());
 		doc.appendChild(rootNode);
+
 		buildDomTree(obj, rootNode);
 	}
 
-	private static void buildDomTree(Object obj, Node parentNode) throws Exception {
-		if (obj == null) {
+	private void serializeDeltaThat(Object previous, Object current) throws Exception {
+		doc = XMLHelper.createEmptyDocument();
+		doc.setStrictErrorChecking(false);
+		Element rootNode = doc.createElement(ClassPlan.of(current.getClass()).getNodeName());
+		doc.appendChild(rootNode);
+
+		diffDomTree(previous, current, rootNode);
+	}
+
+	private void applyDomTree(Object obj, Element rootNode) throws Exception {
+		Deque<PatchFrame> stack = new ArrayDeque<>();
+		stack.push(new PatchFrame(obj, rootNode));
+		registerObject(rootNode, obj);
+
+		while (!stack.isEmpty()) {
+			PatchFrame frame = stack.peek();
+			Element childNode = frame.next();
+
+			if (childNode != null) {
+				applyDomNode(frame, childNode, stack);
+			} else {
+				stack.pop();
+				frame.complete();
+			}
+		}
+	}
+
+	private void applyDomNode(PatchFrame frame, Element childNode, Deque<PatchFrame> stack) throws Exception {
+		String change = childNode.getAttribute(CHANGE_ATTRIBUTE);
+
+		if (frame.typeKind.isMap() && !frame.keyPending) {
+			frame.keyObj = resolveDomTree(frame.itemClass[0], childNode);
+			frame.keyPending = true;
+			return;
+		} else if (frame.typeKind.isCollection() && !(frame.obj instanceof List)) {
+			Object listObj = resolveDomTree(frame.itemClass[0], childNode);
+			frame.update(change.equals(REMOVE_CHANGE) ? null : listObj, listObj);
+			return;
+		}
+
+		Class<?> childType = frame.select(childNode);
+		if (childType == null) {
 			return;
 		}
 
-		Class<?> memberType = obj.getClass();
-		TypeKind typeKind = TypeKind.valueOf(memberType);
+		if (change.equals(REMOVE_CHANGE)) {
+			frame.update(null, null);
+		} else if (change.equals(ADD_CHANGE)) {
+			frame.insert(resolveDomTree(childType, childNode));
+		} else if (change.equals(SET_CHANGE)) {
+			frame.update(resolveDomTree(childType, childNode), null);
+		} else if (ClassPlan.of(childType).typeKind.isText()) {
+			frame.update(makeObject(childNode.getTextContent(), childType, stringTableInUse), null);
+		} else {
+			Object childObj = frame.current();
+			if (childObj == null) {
+				throw new SAXException("Cannot apply changes to missing " + childNode.getNodeName() + ".");
+			}
 
-		if (typeKind.isObject()) {
-			List<Field> allFields = new ArrayList<>(Arrays.asList(obj.getClass().getDeclaredFields()));
+			frame.update(childObj, null);
+			stack.push(new PatchFrame(childObj, childNode));
+			registerObject(childNode, childObj);
+		}
+	}
 
-			for (Field field : allFields) {
-				field.setAccessible(true);
+	private void diffDomTree(Object previous, Object current, Element rootNode) throws Exception {
+		Deque<DiffFrame> stack = new ArrayDeque<>();
+		List<DiffFrame> frames = new ArrayList<>();
+		diffedObjects.put(current, previous);
+		patchedObjects.put(previous, current);
+		if (isReferenceTracking) {
+			writtenObjects.put(current, rootNode);
+		}
 
-				if (!Modifier.isTransient(field.getModifiers())) {
-					Element childNode = doc.createElement(toUCFirst(field.getName()));
-					parentNode.appendChild(childNode);
+		ListDiff listDiff = current instanceof List ? ListDiff.of((List<?>) previous, (List<?>) current) : null;
+		stack.push(new DiffFrame(ClassPlan.of(current.getClass()), previous, current, listDiff, rootNode, false));
+		while (!stack.isEmpty()) {
+			DiffFrame frame = stack.peek();
 
-					Object childObj = field.get(obj);
-					buildDomTree(childObj, childNode);
-				}
+			if (frame.next()) {
+				diffDomNode(frame, stack, frames);
+			} else {
+				stack.pop();
 			}
-		} else if (typeKind.isArray()) {
-			int length = Array.getLength(obj);
+		}
 
-			for (int i = 0; i < length; i++) {
-				Object listObj = Array.get(obj, i);
-				Element listNode = doc.createElement(listObj.getClass().getSimpleName());
-				parentNode.appendChild(listNode);
-				buildDomTree(listObj, listNode);
+		// unchanged objects are removed at the end, when it is known whether
+		// a later reference points to them
+		for (int i = frames.size() - 1; i >= 0; i--) {
+			Element node = frames.get(i).node;
+			int attributeCount = node.hasAttribute(INDEX_ATTRIBUTE) ? 1 : 0;
+			if (node.hasChildNodes() || node.getAttributes().getLength() > attributeCount) {
+				continue;
 			}
-		} else if (typeKind.isCollection()) {
-			Collection<?> list = (Collection<?>) obj;
 
-			for (Object listObj : list) {
-				Element listNode = doc.createElement(listObj.getClass().getSimpleName());
-				parentNode.appendChild(listNode);
-				buildDomTree(listObj, listNode);
+			if (frames.get(i).isMapValue) {
+				Node keyNode = node.getPreviousSibling();
+				if (keyNode.getAttributes().getNamedItem(ID_ATTRIBUTE) != null) {
+					continue;
+				}
+				node.getParentNode().removeChild(keyNode);
 			}
-		} else if (typeKind.isMap()) {
-			Map<?, ?> map = (Map<?, ?>) obj;
+			node.getParentNode().removeChild(node);
+		}
+	}
 
-			for (Object keyObj : map.keySet()) {
-				Element keyNode = doc.createElement(keyObj.getClass().getSimpleName());
-				parentNode.appendChild(keyNode);
-				buildDomTree(keyObj, keyNode);
+	private void diffDomNode(DiffFrame frame, Deque<DiffFrame> stack, List<DiffFrame> frames) throws Exception {
+		Object oldObj = frame.oldChild;
+		Object newObj = frame.newChild;
 
-				Object valueObj = map.get(keyObj);
-				Element valueNode = doc.createElement(valueObj.getClass().getSimpleName());
-				parentNode.appendChild(valueNode);
-				buildDomTree(valueObj, valueNode);
+		if (frame.childChange != null) {
+			buildDomTree(newObj, appendDeltaNode(frame, frame.childChange));
+		} else if (newObj == null) {
+			if (oldObj != null) {
+				appendDeltaNode(frame, REMOVE_CHANGE);
 			}
 		} else {
+			ClassPlan plan = ClassPlan.of(newObj.getClass());
+			TypeKind typeKind = plan.typeKind;
+
+			if (typeKind.isText()) {
+				if (!newObj.equals(oldObj)) {
+					Text newText = doc.createTextNode(makeString(newObj));
+					appendDeltaNode(frame, null).appendChild(newText);
+				}
+			} else if (oldObj == null || oldObj.getClass() != newObj.getClass()
+					|| (typeKind.isArray() && Array.getLength(oldObj) != Array.getLength(newObj))) {
+				buildDomTree(newObj, appendDeltaNode(frame, SET_CHANGE));
+			} else if (typeKind.isArray() && newObj.getClass().getComponentType().isPrimitive()) {
+				if (!Arrays.deepEquals(new Object[] { oldObj }, new Object[] { newObj })) {
+					buildDomTree(newObj, appendDeltaNode(frame, SET_CHANGE));
+				}
+			} else if (diffedObjects.get(newObj) != oldObj) {
+				// an object reached again is only patched in place if it is
+				// paired with the same previous object as before
+				ListDiff listDiff = newObj instanceof List ? ListDiff.of((List<?>) oldObj, (List<?>) newObj) : null;
+				if (diffedObjects.containsKey(newObj) || patchedObjects.containsKey(oldObj)
+						|| (isReferenceTracking && writtenObjects.containsKey(newObj))
+						|| (listDiff != null && listDiff.isReplaced())) {
+					buildDomTree(newObj, appendDeltaNode(frame, SET_CHANGE));
+				} else {
+					diffedObjects.put(newObj, oldObj);
+					patchedObjects.put(oldObj, newObj);
+					Element childNode = appendDeltaNode(frame, null);
+					if (isReferenceTracking) {
+						writtenObjects.put(newObj, childNode);
+					}
+
+					DiffFrame childFrame = new DiffFrame(plan, oldObj, newObj, listDiff, childNode,
+							frame.typeKind.isMap());
+					stack.push(childFrame);
+					frames.add(childFrame);
+				}
+			}
+		}
+	}
+
+	private Element appendDeltaNode(DiffFrame frame, String change) throws Exception {
+		if (frame.typeKind.isMap()) {
+			Element keyNode = doc.createElement(ClassPlan.of(frame.keyObj.getClass()).getNodeName());
+			frame.node.appendChild(keyNode);
+			buildDomTree(frame.keyObj, keyNode);
+		}
+
+		Element childNode = doc.createElement(frame.childName);
+		if (frame.childIndex >= 0) {
+			childNode.setAttribute(INDEX_ATTRIBUTE, Integer.toString(frame.childIndex));
+		}
+		if (change != null) {
+			childNode.setAttribute(CHANGE_ATTRIBUTE, change);
+		}
+		frame.node.appendChild(childNode);
+		return childNode;
+	}
+
+	private void buildDomTree(Object obj, Element rootNode) throws Exception {
+		Deque<BuildFrame> stack = new ArrayDeque<>();
+		buildDomNode(obj, rootNode, stack);
+
+		while (!stack.isEmpty()) {
+			BuildFrame frame = stack.peek();
+
+			if (frame.next()) {
+				Element childNode = doc.createElement(frame.childName);
+				frame.node.appendChild(childNode);
+				buildDomNode(frame.childObj, childNode, stack);
+			} else {
+				stack.pop();
+			}
+		}
+	}
+
+	private void buildDomNode(Object obj, Element node, Deque<BuildFrame> stack) {
+		if (obj == null) {
+			return;
+		}
+
+		ClassPlan plan = ClassPlan.of(obj.getClass());
+		TypeKind typeKind = plan.typeKind;
+
+		if (isReferenceTracking && !typeKind.isText()) {
+			Element firstNode = writtenObjects.get(obj);
+			if (firstNode != null) {
+				node.setAttribute(REF_ATTRIBUTE, getReferenceId(firstNode));
+				return;
+			}
+			writtenObjects.put(obj, node);
+		}
+
+		if (typeKind.isText()) {
 			Text newText = doc.createTextNode(makeString(obj));
-			parentNode.appendChild(newText);
+			node.appendChild(newText);
+		} else if (isCompactArrays && typeKind.isArray() && obj.getClass().getComponentType().isPrimitive()) {
+			node.setAttribute(ENCODING_ATTRIBUTE, BASE64_ENCODING);
+			Text newText = doc.createTextNode(PrimitiveArrays.encode(obj));
+			node.appendChild(newText);
+		} else {
+			stack.push(new BuildFrame(plan, obj, node, isAttributeMode));
+		}
+	}
+
+	private String getReferenceId(Element node) {
+		String id = node.getAttribute(ID_ATTRIBUTE);
+		if (id.isEmpty()) {
+			id = Integer.toString(++lastReferenceId);
+			node.setAttribute(ID_ATTRIBUTE, id);
 		}
+		return id;
 	}
 
 	private static Class<?>[] getTypeArguments(Class<?> clazz) {
@@ -201,34 +1030,38 @@ public final class XMLSerializer {
 				Class<?>[] result = new Class<?>[typeArgs.length];
 
 				for (int i = 0; i < typeArgs.length; i++) {
+					if (!(typeArgs[i] instanceof Class)) {
+						return null;
+					}
 					result[i] = (Class<?>) typeArgs[i];
 				}
 
 				return result;
 			}
-		} while (!superType.equals(Object.class));
+		} while (superType instanceof Class && !superType.equals(Object.class));
 
 		return null;
 	}
 
-	private static Object makeObject(String str, Class<?> clazz) throws Exception {
+	private static Object makeObject(String str, Class<?> clazz, StringTable stringTable) throws Exception {
 		if (clazz.isPrimitive()) {
 			clazz = PRIMITIVES_TO_WRAPPERS.get(clazz);
 		}
 
-		if (clazz == Character.class) {
+		if (clazz == String.class) {
+			return stringTable != null ? stringTable.intern(str) : str;
+		} else if (clazz == Character.class) {
 			return Character.valueOf(str.charAt(0));
 		} else if (clazz == Date.class) {
 			return new Date(Long.parseLong(str));
 		} else if (clazz == File.class) {
 			return new File(str);
 		} else {
-			try {
-				Method initMethod = clazz.getMethod("valueOf", String.class);
-				return initMethod.invoke(null, str);
-			} catch (NoSuchMethodException e) {
+			Method initMethod = ClassPlan.of(clazz).valueOfMethod;
+			if (initMethod == null) {
 				return str;
 			}
+			return initMethod.invoke(null, str);
 		}
 	}
 
@@ -240,110 +1073,897 @@ public final class XMLSerializer {
 		}
 	}
 
-	private static Object resolveDomTree(Class<?> memberType, Node parentNode) throws Exception {
-		TypeKind typeKind = TypeKind.valueOf(memberType);
+	private void registerObject(Node node, Object obj) {
+		String id = XMLHelper.getAttributeValue(node, ID_ATTRIBUTE);
+		if (!id.isEmpty()) {
+			readObjects.put(id, obj);
+		}
+	}
+
+	private Object resolveDomTree(Class<?> memberType, Element rootNode) throws Exception {
+		Deque<ResolveFrame> stack = new ArrayDeque<>();
+		Object obj = resolveDomNode(memberType, rootNode, stack);
+
+		while (!stack.isEmpty()) {
+			ResolveFrame frame = stack.peek();
+
+			if (frame.next()) {
+				Object childObj = resolveDomNode(frame.childType, frame.childNode, stack);
+				if (stack.peek() == frame) {
+					frame.accept(childObj);
+				}
+			} else {
+				stack.pop();
+				Object childObj = frame.complete();
+				if (!stack.isEmpty()) {
+					stack.peek().accept(childObj);
+				}
+			}
+		}
+
+		return obj;
+	}
+
+	private Object resolveDomNode(Class<?> memberType, Node node, Deque<ResolveFrame> stack)
+			throws Exception {
+		ClassPlan plan = ClassPlan.of(memberType);
+		TypeKind typeKind = plan.typeKind;
+
+		if (!typeKind.isText()) {
+			String ref = XMLHelper.getAttributeValue(node, REF_ATTRIBUTE);
+			if (!ref.isEmpty()) {
+				if (!readObjects.containsKey(ref)) {
+					throw new SAXException("Unknown reference " + ref + ".");
+				}
+				return readObjects.get(ref);
+			}
+
+			if (typeKind.isArray() && memberType.getComponentType().isPrimitive()
+					&& XMLHelper.getAttributeValue(node, ENCODING_ATTRIBUTE).equals(BASE64_ENCODING)) {
+				Object obj = PrimitiveArrays.decode(node.getTextContent(), memberType.getComponentType());
+				registerObject(node, obj);
+				return obj;
+			}
+
+			ResolveFrame frame = new ResolveFrame(plan, node, stringTableInUse);
+			registerObject(node, frame.obj);
+			stack.push(frame);
+			return frame.obj;
+		} else {
+			String textContent = "";
+			if (node.hasChildNodes()) {
+				textContent = node.getFirstChild().getTextContent();
+			}
+
+			Object obj = makeObject(textContent, memberType, stringTableInUse);
+			return obj;
+		}
+	}
+
+	private static String toUCFirst(String str) {
+		return str.substring(0, 1).toUpperCase() + str.substring(1);
+	}
+
+	private static final class DiffFrame {
+		private final ClassPlan plan;
+		private final TypeKind typeKind;
+		private final Object oldObj;
+		private final Object newObj;
+		private final ListDiff listDiff;
+		private final Element node;
+		private final boolean isMapValue;
+		private Iterator<?> iterator;
+		private boolean isRemoving;
+		private int length;
+		private int index;
+		private String childName;
+		private int childIndex;
+		private String childChange;
+		private Object oldChild;
+		private Object newChild;
+		private Object keyObj;
+
+		private DiffFrame(ClassPlan plan, Object oldObj, Object newObj, ListDiff listDiff, Element node,
+				boolean isMapValue) {
+			this.plan = plan;
+			this.typeKind = plan.typeKind;
+			this.oldObj = oldObj;
+			this.newObj = newObj;
+			this.listDiff = listDiff;
+			this.node = node;
+			this.isMapValue = isMapValue;
+
+			if (typeKind.isObject()) {
+				plan.checkFieldNames();
+				length = plan.fields.length;
+			} else if (typeKind.isArray()) {
+				length = Array.getLength(newObj);
+			} else if (typeKind.isCollection() && newObj instanceof List) {
+				length = listDiff.removedIndexes.length + listDiff.addedIndexes.length
+						+ listDiff.alignedNewIndexes.length;
+			} else if (typeKind.isCollection()) {
+				iterator = ((Collection<?>) newObj).iterator();
+			} else {
+				iterator = ((Map<?, ?>) newObj).entrySet().iterator();
+			}
+		}
+
+		private boolean next() throws IllegalAccessException {
+			childIndex = -1;
+			childChange = null;
+
+			if (typeKind.isObject()) {
+				if (index < length) {
+					int fieldIndex = index++;
+					childName = plan.fieldNames[fieldIndex];
+					oldChild = plan.fields[fieldIndex].get(oldObj);
+					newChild = plan.fields[fieldIndex].get(newObj);
+					return true;
+				}
+			} else if (typeKind.isArray()) {
+				if (index < length) {
+					childIndex = index++;
+					oldChild = Array.get(oldObj, childIndex);
+					newChild = Array.get(newObj, childIndex);
+					setChildName();
+					return true;
+				}
+			} else if (newObj instanceof List) {
+				int removedCount = listDiff.removedIndexes.length;
+				int addedCount = listDiff.addedIndexes.length;
+
+				if (index < removedCount) {
+					// removed from the back, so the indexes before stay valid
+					childIndex = listDiff.removedIndexes[removedCount - 1 - index++];
+					oldChild = ((List<?>) oldObj).get(childIndex);
+					newChild = null;
+					childChange = REMOVE_CHANGE;
+				} else if (index < removedCount + addedCount) {
+					childIndex = listDiff.addedIndexes[index++ - removedCount];
+					oldChild = null;
+					newChild = ((List<?>) newObj).get(childIndex);
+					childChange = ADD_CHANGE;
+				} else if (index < length) {
+					// after the removals and additions, the remaining items
+					// already have their new indexes
+					int alignedIndex = index++ - removedCount - addedCount;
+					childIndex = listDiff.alignedNewIndexes[alignedIndex];
+					oldChild = ((List<?>) oldObj).get(listDiff.alignedOldIndexes[alignedIndex]);
+					newChild = ((List<?>) newObj).get(childIndex);
+				} else {
+					return false;
+				}
+
+				setChildName();
+				return true;
+			} else if (typeKind.isCollection()) {
+				Collection<?> otherList = (Collection<?>) (isRemoving ? newObj : oldObj);
 
-		if (typeKind.isObject()) {
-			List<Field> allFields = new ArrayList<>(Arrays.asList(memberType.getDeclaredFields()));
-			Object obj = memberType.newInstance();
+				while (true) {
+					if (!iterator.hasNext()) {
+						if (isRemoving) {
+							return false;
+						}
+						isRemoving = true;
+						iterator = ((Collection<?>) oldObj).iterator();
+						otherList = (Collection<?>) newObj;
+						continue;
+					}
 
-			for (Field field : allFields) {
-				field.setAccessible(true);
+					Object listObj = iterator.next();
+					if (!otherList.contains(listObj)) {
+						oldChild = null;
+						newChild = listObj;
+						childChange = isRemoving ? REMOVE_CHANGE : ADD_CHANGE;
+						setChildName();
+						return true;
+					}
+				}
+			} else {
+				Map<?, ?> oldMap = (Map<?, ?>) oldObj;
+				Map<?, ?> newMap = (Map<?, ?>) newObj;
 
-				if (!Modifier.isTransient(field.getModifiers())) {
-					NodeList children = XMLHelper.getNodeList(parentNode, toUCFirst(field.getName()));
+				while (true) {
+					if (!iterator.hasNext()) {
+						if (isRemoving) {
+							return false;
+						}
+						isRemoving = true;
+						iterator = oldMap.entrySet().iterator();
+						continue;
+					}
 
-					if (children.getLength() == 1) {
-						Node childNode = children.item(0);
-						Object childObj = resolveDomTree(field.getType(), childNode);
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>) iterator.next();
+					keyObj = entry.getKey();
 
-						if (childObj != null) {
-							field.set(obj, childObj);
+					if (!isRemoving) {
+						oldChild = oldMap.get(keyObj);
+						newChild = entry.getValue();
+						if (oldChild == null && newChild != null && !oldMap.containsKey(keyObj)) {
+							childChange = SET_CHANGE;
 						}
+						setChildName();
+						return true;
+					} else if (!newMap.containsKey(keyObj)) {
+						oldChild = entry.getValue();
+						newChild = null;
+						setChildName();
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
+
+		private void setChildName() {
+			childName = ClassPlan.of((newChild != null ? newChild : oldChild).getClass()).getNodeName();
+		}
+	}
+
+	/**
+	 * Edit script between two versions of a list, computed with the greedy
+	 * algorithm of Myers after the equal prefix and suffix are skipped. A
+	 * removed item directly followed by an added one is treated as a changed
+	 * item instead, so it is compared in place.
+	 */
+	private static final class ListDiff {
+		private static final int MAX_EDITS = 1000;
+
+		private int[] removedIndexes;
+		private int[] addedIndexes;
+		private int[] alignedOldIndexes;
+		private int[] alignedNewIndexes;
+
+		private static ListDiff of(List<?> oldList, List<?> newList) {
+			int oldSize = oldList.size();
+			int newSize = newList.size();
+			int prefixLength = 0;
+			int suffixLength = 0;
+
+			while (prefixLength < Math.min(oldSize, newSize)
+					&& Objects.equals(oldList.get(prefixLength), newList.get(prefixLength))) {
+				prefixLength++;
+			}
+			while (suffixLength < Math.min(oldSize, newSize) - prefixLength && Objects
+					.equals(oldList.get(oldSize - 1 - suffixLength), newList.get(newSize - 1 - suffixLength))) {
+				suffixLength++;
+			}
+
+			ListDiff listDiff = new ListDiff();
+			int[] edits = findEdits(oldList.subList(prefixLength, oldSize - suffixLength),
+					newList.subList(prefixLength, newSize - suffixLength));
+
+			if (edits == null && oldSize == newSize) {
+				// too many changes, the items are compared position by position
+				listDiff.removedIndexes = new int[0];
+				listDiff.addedIndexes = new int[0];
+				listDiff.alignedOldIndexes = new int[newSize];
+				for (int i = 0; i < newSize; i++) {
+					listDiff.alignedOldIndexes[i] = i;
+				}
+				listDiff.alignedNewIndexes = listDiff.alignedOldIndexes;
+			} else if (edits == null) {
+				// too many changes, all items are replaced
+				listDiff.removedIndexes = new int[oldSize];
+				listDiff.addedIndexes = new int[newSize];
+				for (int i = 0; i < Math.max(oldSize, newSize); i++) {
+					if (i < oldSize) {
+						listDiff.removedIndexes[i] = i;
+					}
+					if (i < newSize) {
+						listDiff.addedIndexes[i] = i;
+					}
+				}
+				listDiff.alignedOldIndexes = new int[0];
+				listDiff.alignedNewIndexes = new int[0];
+			} else {
+				listDiff.align(edits, prefixLength, oldSize, newSize);
+			}
+
+			return listDiff;
+		}
+
+		/**
+		 * Finds the shortest edit script, with 0 for a removed item, 1 for an
+		 * added item and -1 for an equal item, or null if more than MAX_EDITS
+		 * edits are needed.
+		 */
+		private static int[] findEdits(List<?> oldList, List<?> newList) {
+			int oldSize = oldList.size();
+			int newSize = newList.size();
+			int maxEdits = Math.min(oldSize + newSize, MAX_EDITS);
+			int offset = maxEdits + 1;
+			int[] v = new int[2 * maxEdits + 3];
+			List<int[]> trace = new ArrayList<>();
+
+			for (int d = 0; d <= maxEdits; d++) {
+				trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+
+				for (int k = -d; k <= d; k += 2) {
+					int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? v[offset + k + 1]
+							: v[offset + k - 1] + 1;
+					int y = x - k;
+					while (x < oldSize && y < newSize && Objects.equals(oldList.get(x), newList.get(y))) {
+						x++;
+						y++;
+					}
+					v[offset + k] = x;
+
+					if (x >= oldSize && y >= newSize) {
+						return backtrack(trace, oldSize, newSize);
+					}
+				}
+			}
+
+			return null;
+		}
+
+		private static int[] backtrack(List<int[]> trace, int oldSize, int newSize) {
+			Deque<Integer> edits = new ArrayDeque<>();
+			int x = oldSize;
+			int y = newSize;
+
+			for (int d = trace.size() - 1; d > 0; d--) {
+				int[] v = trace.get(d);
+				int k = x - y;
+				int prevK = k == -d || (k != d && v[k - 1 + d + 1] < v[k + 1 + d + 1]) ? k + 1 : k - 1;
+				int prevX = v[prevK + d + 1];
+				int prevY = prevX - prevK;
+
+				while (x > prevX && y > prevY) {
+					edits.push(-1);
+					x--;
+					y--;
+				}
+				edits.push(prevK == k + 1 ? 1 : 0);
+				x = prevX;
+				y = prevY;
+			}
+			while (x > 0) {
+				edits.push(-1);
+				x--;
+			}
+
+			int[] result = new int[edits.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = edits.pop();
+			}
+			return result;
+		}
+
+		private void align(int[] edits, int prefixLength, int oldSize, int newSize) {
+			List<Integer> removed = new ArrayList<>();
+			List<Integer> added = new ArrayList<>();
+			int[] alignedOld = new int[Math.min(oldSize, newSize)];
+			int[] alignedNew = new int[alignedOld.length];
+			int alignedCount = 0;
+			int x = 0;
+			int y = 0;
+
+			for (int i = 0; i < prefixLength; i++) {
+				alignedOld[alignedCount] = x++;
+				alignedNew[alignedCount++] = y++;
+			}
+
+			for (int i = 0; i < edits.length;) {
+				if (edits[i] < 0) {
+					alignedOld[alignedCount] = x++;
+					alignedNew[alignedCount++] = y++;
+					i++;
+					continue;
+				}
+
+				int removedCount = 0;
+				int addedCount = 0;
+				for (; i < edits.length && edits[i] >= 0; i++) {
+					if (edits[i] == 0) {
+						removedCount++;
+					} else {
+						addedCount++;
 					}
 				}
+
+				int changedCount = Math.min(removedCount, addedCount);
+				for (int j = 0; j < changedCount; j++) {
+					alignedOld[alignedCount] = x + j;
+					alignedNew[alignedCount++] = y + j;
+				}
+				for (int j = changedCount; j < removedCount; j++) {
+					removed.add(x + j);
+				}
+				for (int j = changedCount; j < addedCount; j++) {
+					added.add(y + j);
+				}
+				x += removedCount;
+				y += addedCount;
+			}
+
+			while (x < oldSize) {
+				alignedOld[alignedCount] = x++;
+				alignedNew[alignedCount++] = y++;
+			}
+
+			removedIndexes = toArray(removed);
+			addedIndexes = toArray(added);
+			alignedOldIndexes = Arrays.copyOf(alignedOld, alignedCount);
+			alignedNewIndexes = Arrays.copyOf(alignedNew, alignedCount);
+		}
+
+		private static int[] toArray(List<Integer> list) {
+			int[] result = new int[list.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = list.get(i);
+			}
+			return result;
+		}
+
+		private boolean isReplaced() {
+			return alignedOldIndexes.length == 0 && removedIndexes.length > 0;
+		}
+	}
+
+	private static final class PatchFrame {
+		private final TypeKind typeKind;
+		private final Object obj;
+		private final Class<?>[] itemClass;
+		private Map<String, Field> fields;
+		private Node nextNode;
+		private Field childField;
+		private int childIndex;
+		private boolean keyPending;
+		private Object keyObj;
+
+		private PatchFrame(Object obj, Element node) {
+			ClassPlan plan = ClassPlan.of(obj.getClass());
+			this.typeKind = plan.typeKind;
+			this.obj = obj;
+			nextNode = node.getFirstChild();
+
+			if (typeKind.isObject()) {
+				itemClass = null;
+				fields = plan.fieldsByName;
+			} else {
+				itemClass = plan.getItemClass();
 			}
+		}
 
-			if (obj instanceof ObjectInputValidation) {
+		private void complete() throws Exception {
+			if (typeKind.isObject() && obj instanceof ObjectInputValidation) {
 				((ObjectInputValidation) obj).validateObject();
 			}
+		}
 
-			return obj;
-		} else if (typeKind.isArray()) {
-			Class<?> itemClass = memberType.getComponentType();
-			Class<?> queryClass = itemClass;
+		private Object current() throws IllegalAccessException {
+			if (typeKind.isObject()) {
+				return childField.get(obj);
+			} else if (typeKind.isArray()) {
+				return Array.get(obj, childIndex);
+			} else if (typeKind.isCollection()) {
+				List<?> list = (List<?>) obj;
+				return childIndex < list.size() ? list.get(childIndex) : null;
+			} else {
+				return ((Map<?, ?>) obj).get(keyObj);
+			}
+		}
+
+		private Element next() {
+			while (nextNode != null) {
+				Node node = nextNode;
+				nextNode = node.getNextSibling();
 
-			if (queryClass.isPrimitive()) {
-				queryClass = PRIMITIVES_TO_WRAPPERS.get(queryClass);
+				if (node.getNodeType() == Node.ELEMENT_NODE) {
+					return (Element) node;
+				}
 			}
+			return null;
+		}
 
-			NodeList children = XMLHelper.getNodeList(parentNode, queryClass.getSimpleName());
-			Object newList = Array.newInstance(itemClass, children.getLength());
+		private Class<?> select(Element childNode) {
+			if (typeKind.isObject()) {
+				childField = fields.get(childNode.getNodeName());
+				return childField != null ? childField.getType() : null;
+			} else if (typeKind.isMap()) {
+				return itemClass[1];
+			} else {
+				childIndex = Integer.parseInt(childNode.getAttribute(INDEX_ATTRIBUTE));
+				return itemClass[0];
+			}
+		}
 
-			for (int i = 0; i < children.getLength(); i++) {
-				Node listNode = children.item(i);
-				Object listObj = resolveDomTree(itemClass, listNode);
+		@SuppressWarnings("unchecked")
+		private void insert(Object childObj) throws SAXException {
+			if (!(obj instanceof List)) {
+				throw new SAXException("Cannot insert into " + obj.getClass().getSimpleName() + ".");
+			}
+			((List<Object>) obj).add(childIndex, childObj);
+		}
 
-				if (listObj != null) {
-					Array.set(newList, i, listObj);
+		@SuppressWarnings("unchecked")
+		private void update(Object childObj, Object removedObj) throws Exception {
+			if (typeKind.isObject()) {
+				childField.set(obj, childObj);
+			} else if (typeKind.isArray()) {
+				Array.set(obj, childIndex, childObj);
+			} else if (obj instanceof List) {
+				List<Object> list = (List<Object>) obj;
+				if (childObj == null) {
+					list.remove(childIndex);
+				} else {
+					list.set(childIndex, childObj);
+				}
+			} else if (typeKind.isCollection()) {
+				Collection<Object> list = (Collection<Object>) obj;
+				if (childObj != null) {
+					list.add(childObj);
+				} else {
+					list.remove(removedObj);
 				}
+			} else {
+				Map<Object, Object> map = (Map<Object, Object>) obj;
+				if (childObj != null) {
+					map.put(keyObj, childObj);
+				} else {
+					map.remove(keyObj);
+				}
+				keyPending = false;
+			}
+		}
+	}
+
+	private static final class BuildFrame {
+		private final ClassPlan plan;
+		private final TypeKind typeKind;
+		private final Object obj;
+		private final Element node;
+		private final boolean isAttributeMode;
+		private int length;
+		private Iterator<?> iterator;
+		private int index;
+		private Object valueObj;
+		private boolean valuePending;
+		private String childName;
+		private Object childObj;
+
+		private BuildFrame(ClassPlan plan, Object obj, Element node, boolean isAttributeMode) {
+			this.plan = plan;
+			this.typeKind = plan.typeKind;
+			this.obj = obj;
+			this.node = node;
+			this.isAttributeMode = isAttributeMode;
+
+			if (typeKind.isObject()) {
+				plan.checkFieldNames();
+				length = plan.fields.length;
+			} else if (typeKind.isArray()) {
+				length = Array.getLength(obj);
+			} else if (typeKind.isCollection()) {
+				iterator = ((Collection<?>) obj).iterator();
+			} else {
+				iterator = ((Map<?, ?>) obj).entrySet().iterator();
 			}
+		}
 
-			return newList;
-		} else if (typeKind.isCollection()) {
-			Class<?>[] itemClass = getTypeArguments(memberType);
-			NodeList children = XMLHelper.getNodeList(parentNode, itemClass[0].getSimpleName());
-			Collection<?> newList = (Collection<?>) memberType.newInstance();
-			Method addMethod = memberType.getMethod("add", Object.class);
+		private boolean next() throws IllegalAccessException {
+			if (typeKind.isObject()) {
+				while (index < length) {
+					int fieldIndex = index++;
+					Field field = plan.fields[fieldIndex];
 
-			for (int i = 0; i < children.getLength(); i++) {
-				Node listNode = children.item(i);
-				Object listObj = resolveDomTree(itemClass[0], listNode);
+					if (plan.isAttribute(fieldIndex, isAttributeMode)) {
+						Object value = field.get(obj);
+						if (value != null) {
+							node.setAttribute(plan.fieldNames[fieldIndex], makeString(value));
+						}
+						continue;
+					}
 
-				if (listObj != null) {
-					addMethod.invoke(newList, listObj);
+					childName = plan.fieldNames[fieldIndex];
+					childObj = field.get(obj);
+					return true;
+				}
+			} else if (typeKind.isArray()) {
+				if (index < length) {
+					setChild(Array.get(obj, index++));
+					return true;
+				}
+			} else if (typeKind.isCollection()) {
+				if (iterator.hasNext()) {
+					setChild(iterator.next());
+					return true;
+				}
+			} else {
+				if (valuePending) {
+					valuePending = false;
+					setChild(valueObj);
+					return true;
+				} else if (iterator.hasNext()) {
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>) iterator.next();
+					valueObj = entry.getValue();
+					valuePending = true;
+					setChild(entry.getKey());
+					return true;
 				}
 			}
 
-			return newList;
-		} else if (typeKind.isMap()) {
-			Class<?>[] itemClass = getTypeArguments(memberType);
-			NodeList children = XMLHelper.getNodeList(parentNode, "*[name()='" + itemClass[0].getSimpleName()
-					+ "' or name()='" + itemClass[1].getSimpleName() + "']");
-			Map<?, ?> newMap = (Map<?, ?>) memberType.newInstance();
-			Method putMethod = memberType.getMethod("put", Object.class, Object.class);
+			return false;
+		}
+
+		private void setChild(Object listObj) {
+			childName = ClassPlan.of(listObj.getClass()).getNodeName();
+			childObj = listObj;
+		}
+	}
 
-			if (children.getLength() % 2 == 0) {
-				for (int i = 0; i < children.getLength(); i += 2) {
-					Node keyNode = children.item(i);
-					Node valueNode = children.item(i + 1);
+	private static final class ResolveFrame {
+		private final ClassPlan plan;
+		private final TypeKind typeKind;
+		private final Object obj;
+		private final Node node;
+		private final StringTable stringTable;
+		private Class<?>[] itemClass;
+		private List<Element> children;
+		private int length;
+		private int index;
+		private Object keyObj;
+		private Field childField;
+		private Class<?> childType;
+		private Node childNode;
 
-					if (keyNode.getNodeName().equals(itemClass[0].getSimpleName())
-							&& valueNode.getNodeName().equals(itemClass[1].getSimpleName())) {
-						Object keyObj = resolveDomTree(itemClass[0], keyNode);
-						Object valueObj = resolveDomTree(itemClass[1], valueNode);
+		private ResolveFrame(ClassPlan plan, Node node, StringTable stringTable) throws Exception {
+			this.plan = plan;
+			this.typeKind = plan.typeKind;
+			this.node = node;
+			this.stringTable = stringTable;
+
+			if (typeKind.isObject()) {
+				length = plan.fields.length;
+				obj = plan.newInstance();
+			} else if (typeKind.isArray()) {
+				itemClass = plan.itemClass;
+				Class<?> queryClass = itemClass[0];
+
+				if (queryClass.isPrimitive()) {
+					queryClass = PRIMITIVES_TO_WRAPPERS.get(queryClass);
+				}
+
+				children = XMLHelper.getChildElements(node, queryClass.getSimpleName());
+				length = children.size();
+				obj = Array.newInstance(itemClass[0], length);
+			} else if (typeKind.isCollection()) {
+				itemClass = plan.getItemClass();
+				children = XMLHelper.getChildElements(node, itemClass[0].getSimpleName());
+				length = children.size();
+				obj = plan.newInstance(length);
+			} else {
+				itemClass = plan.getItemClass();
+				children = XMLHelper.getChildElements(node, itemClass[0].getSimpleName(),
+						itemClass[1].getSimpleName());
+				length = children.size() % 2 == 0 ? children.size() : 0;
+				obj = plan.newInstance();
+			}
+		}
+
+		private boolean next() throws Exception {
+			if (typeKind.isObject()) {
+				while (index < length) {
+					int fieldIndex = index++;
+					Field field = plan.fields[fieldIndex];
+					String fieldName = plan.fieldNames[fieldIndex];
 
-						if (keyObj != null && valueObj != null) {
-							putMethod.invoke(newMap, keyObj, valueObj);
+					if (plan.textFields[fieldIndex]) {
+						Node attrNode = node.getAttributes().getNamedItem(fieldName);
+						if (attrNode != null) {
+							field.set(obj, makeObject(attrNode.getNodeValue(), field.getType(), stringTable));
+							continue;
 						}
 					}
+
+					List<Element> fieldNodes = XMLHelper.getChildElements(node, fieldName);
+
+					if (fieldNodes.size() == 1) {
+						childField = field;
+						childType = field.getType();
+						childNode = fieldNodes.get(0);
+						return true;
+					}
+				}
+			} else if (typeKind.isArray() || typeKind.isCollection()) {
+				if (index < length) {
+					childType = itemClass[0];
+					childNode = children.get(index++);
+					return true;
+				}
+			} else {
+				if (index % 2 == 1) {
+					childType = itemClass[1];
+					childNode = children.get(index++);
+					return true;
+				}
+
+				while (index < length) {
+					Node keyNode = children.get(index);
+					Node valueNode = children.get(index + 1);
+
+					if (keyNode.getNodeName().equals(itemClass[0].getSimpleName())
+							&& valueNode.getNodeName().equals(itemClass[1].getSimpleName())) {
+						childType = itemClass[0];
+						childNode = keyNode;
+						index++;
+						return true;
+					}
+
+					index += 2;
 				}
 			}
 
-			return newMap;
-		} else {
-			String textContent = "";
-			if (parentNode.hasChildNodes()) {
-				textContent = parentNode.getFirstChild().getTextContent();
+			return false;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void accept(Object childObj) throws Exception {
+			if (typeKind.isObject()) {
+				if (childObj != null) {
+					childField.set(obj, childObj);
+				}
+			} else if (typeKind.isArray()) {
+				if (childObj != null) {
+					Array.set(obj, index - 1, childObj);
+				}
+			} else if (typeKind.isCollection()) {
+				if (childObj != null) {
+					((Collection<Object>) obj).add(childObj);
+				}
+			} else {
+				if (index % 2 == 1) {
+					keyObj = childObj;
+				} else if (keyObj != null && childObj != null) {
+					((Map<Object, Object>) obj).put(keyObj, childObj);
+				}
+			}
+		}
+
+		private Object complete() throws Exception {
+			if (typeKind.isObject() && obj instanceof ObjectInputValidation) {
+				((ObjectInputValidation) obj).validateObject();
 			}
 
-			Object obj = makeObject(textContent, memberType);
 			return obj;
 		}
 	}
 
-	private static String toUCFirst(String str) {
-		return str.substring(0, 1).toUpperCase() + str.substring(1);
+	private static final class ClassPlan {
+		private final Class<?> clazz;
+		private final TypeKind typeKind;
+		private final String nodeName;
+		private String invalidFieldName;
+		private Field[] fields;
+		private String[] fieldNames;
+		private boolean[] annotatedFields;
+		private boolean[] textFields;
+		private Map<String, Field> fieldsByName;
+		private Class<?>[] itemClass;
+		private Constructor<?> constructor;
+		private Method valueOfMethod;
+
+		private ClassPlan(Class<?> clazz) {
+			this.clazz = clazz;
+			this.typeKind = TypeKind.valueOf(clazz);
+			this.nodeName = XMLHelper.isValidName(clazz.getSimpleName()) ? clazz.getSimpleName() : null;
+
+			if (typeKind.isObject()) {
+				List<Field> fieldList = new ArrayList<>();
+				for (Field field : clazz.getDeclaredFields()) {
+					if (!Modifier.isTransient(field.getModifiers())) {
+						field.setAccessible(true);
+						fieldList.add(field);
+					}
+				}
+
+				fields = fieldList.toArray(new Field[fieldList.size()]);
+				fieldNames = new String[fields.length];
+				annotatedFields = new boolean[fields.length];
+				textFields = new boolean[fields.length];
+				fieldsByName = new HashMap<>();
+
+				for (int i = 0; i < fields.length; i++) {
+					fieldNames[i] = toUCFirst(fields[i].getName());
+					annotatedFields[i] = fields[i].isAnnotationPresent(XMLAttribute.class);
+					textFields[i] = TypeKind.valueOf(fields[i].getType()).isText();
+					fieldsByName.put(fieldNames[i], fields[i]);
+
+					if (invalidFieldName == null && !XMLHelper.isValidName(fieldNames[i])) {
+						invalidFieldName = fieldNames[i];
+					}
+				}
+			} else if (typeKind.isArray()) {
+				itemClass = new Class<?>[] { clazz.getComponentType() };
+			} else if (!typeKind.isText()) {
+				itemClass = getTypeArguments(clazz);
+			} else if (!clazz.isPrimitive() && clazz != String.class && clazz != Character.class
+					&& clazz != Date.class && clazz != File.class) {
+				try {
+					valueOfMethod = clazz.getMethod("valueOf", String.class);
+				} catch (NoSuchMethodException e) {
+					valueOfMethod = null;
+				}
+			}
+
+			if (!typeKind.isText() && !typeKind.isArray()) {
+				try {
+					constructor = clazz.getConstructor();
+				} catch (NoSuchMethodException e) {
+					constructor = null;
+				}
+			}
+		}
+
+		private static ClassPlan of(Class<?> clazz) {
+			ClassPlan plan = CLASS_PLANS.get(clazz);
+			if (plan == null) {
+				plan = new ClassPlan(clazz);
+				ClassPlan existingPlan = CLASS_PLANS.putIfAbsent(clazz, plan);
+				if (existingPlan != null) {
+					plan = existingPlan;
+				}
+			}
+			return plan;
+		}
+
+		private void checkFieldNames() {
+			if (invalidFieldName != null) {
+				throw new DOMException(DOMException.INVALID_CHARACTER_ERR,
+						"Invalid node name \"" + invalidFieldName + "\" of a field in " + clazz.getName() + ".");
+			}
+		}
+
+		private String getNodeName() {
+			if (nodeName == null) {
+				throw new DOMException(DOMException.INVALID_CHARACTER_ERR,
+						"Invalid node name \"" + clazz.getSimpleName() + "\" of " + clazz.getName() + ".");
+			}
+			return nodeName;
+		}
+
+		private boolean isAttribute(int index, boolean isAttributeMode) {
+			return (isAttributeMode || annotatedFields[index]) && textFields[index];
+		}
+
+		private boolean isReflective() {
+			return !typeKind.isText() || valueOfMethod != null;
+		}
+
+		private Class<?>[] getItemClass() {
+			if (itemClass == null) {
+				throw new IllegalArgumentException("Missing type arguments of " + clazz.getName() + ".");
+			}
+			return itemClass;
+		}
+
+		private Object newInstance() throws Exception {
+			if (constructor == null || Modifier.isAbstract(clazz.getModifiers())) {
+				throw new InstantiationException(clazz.getName());
+			}
+			return constructor.newInstance();
+		}
+
+		private Object newInstance(int size) throws Exception {
+			Object obj = newInstance();
+			if (obj instanceof ArrayList) {
+				((ArrayList<?>) obj).ensureCapacity(size);
+			}
+			return obj;
+		}
+
+		private void validate() {
+			if (typeKind.isCollection() || typeKind.isMap()) {
+				getItemClass();
+			}
+			if (!typeKind.isText() && !typeKind.isArray()
+					&& (constructor == null || Modifier.isAbstract(clazz.getModifiers()))) {
+				throw new IllegalArgumentException("Missing public default constructor of " + clazz.getName() + ".");
+			}
+		}
 	}
 
 	private static enum TypeKind {
@@ -365,6 +1985,10 @@ public final class XMLSerializer {
 			return this == OBJECT;
 		}
 
+		public boolean isText() {
+			return this == TEXT;
+		}
+
 		public static TypeKind valueOf(Class<?> clazz) {
 			for (Class<?> wrapperClass : PRIMITIVES_TO_WRAPPERS.values()) {
 				if (clazz.equals(wrapperClass)) {
@@ -378,7 +2002,7 @@ public final class XMLSerializer {
 			} else if (clazz.isArray()) {
 				return ARRAY;
 			} else {
-				while (!clazz.equals(Object.class)) {
+				while (clazz != null && !clazz.equals(Object.class)) {
 					if (clazz.equals(Enum.class)) {
 						return TEXT;
 					} else if (hasInterface(clazz, Collection.class)) {
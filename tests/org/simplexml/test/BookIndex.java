@@ -0,0 +1,7 @@
+package org.simplexml.test;
+
+import java.util.HashMap;
+
+public class BookIndex extends HashMap<String, Book> {
+	private static final long serialVersionUID = 0L;
+}
\ No newline at end of file
@@ -0,0 +1,30 @@
+package org.simplexml.test;
+
+import java.util.ArrayList;
+
+public class LimitedBookList extends ArrayList<Book> {
+	private static final long serialVersionUID = 0L;
+
+	private final int limit;
+
+	public LimitedBookList() {
+		this(Integer.MAX_VALUE);
+	}
+
+	public LimitedBookList(int limit) {
+		super();
+		this.limit = limit;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public boolean add(Book book) {
+		if (size() >= limit) {
+			throw new IllegalStateException("Limit reached.");
+		}
+		return super.add(book);
+	}
+}
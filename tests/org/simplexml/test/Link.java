@@ -0,0 +1,27 @@
+package org.simplexml.test;
+
+public class Link {
+	private String name;
+	private Link next;
+
+	public Link() {
+		name = "";
+		next = null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Link getNext() {
+		return next;
+	}
+
+	public void setNext(Link next) {
+		this.next = next;
+	}
+}
\ No newline at end of file
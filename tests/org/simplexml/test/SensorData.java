@@ -0,0 +1,50 @@
+package org.simplexml.test;
+
+import org.simplexml.XMLAttribute;
+
+public class SensorData {
+	@XMLAttribute
+	private String sensor;
+	private long[] timestamps;
+	private double[] values;
+	private boolean[] valid;
+
+	public SensorData() {
+		sensor = "";
+		timestamps = new long[0];
+		values = new double[0];
+		valid = new boolean[0];
+	}
+
+	public String getSensor() {
+		return sensor;
+	}
+
+	public void setSensor(String sensor) {
+		this.sensor = sensor;
+	}
+
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	public void setTimestamps(long[] timestamps) {
+		this.timestamps = timestamps;
+	}
+
+	public double[] getValues() {
+		return values;
+	}
+
+	public void setValues(double[] values) {
+		this.values = values;
+	}
+
+	public boolean[] getValid() {
+		return valid;
+	}
+
+	public void setValid(boolean[] valid) {
+		this.valid = valid;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package org.simplexml.test;
+
+import java.util.List;
+
+public class Shelf {
+	private List<Book> books;
+
+	public Shelf() {
+		books = null;
+	}
+
+	public List<Book> getBooks() {
+		return books;
+	}
+
+	public void setBooks(List<Book> books) {
+		this.books = books;
+	}
+}
@@ -0,0 +1,7 @@
+package org.simplexml.test;
+
+import java.util.LinkedHashSet;
+
+public class TitleSet extends LinkedHashSet<String> {
+	private static final long serialVersionUID = 0L;
+}
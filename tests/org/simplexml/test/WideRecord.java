@@ -0,0 +1,170 @@
+package org.simplexml.test;
+
+import java.util.Date;
+
+public class WideRecord {
+	private String code;
+	private String name;
+	private String description;
+	private Gender gender;
+	private Date created;
+	private boolean active;
+	private byte level;
+	private short rank;
+	private int count;
+	private long total;
+	private float ratio;
+	private double amount;
+	private char grade;
+	private Integer version;
+
+	public WideRecord() {
+		code = "";
+		name = "";
+		description = "";
+		gender = Gender.NONE;
+		created = new Date();
+		active = false;
+		level = 0;
+		rank = 0;
+		count = 0;
+		total = 0L;
+		ratio = 0.0F;
+		amount = 0.0;
+		grade = 'A';
+		version = 1;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	public void setCode(String code) {
+		this.code = code;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public Gender getGender() {
+		return gender;
+	}
+
+	public void setGender(Gender gender) {
+		this.gender = gender;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public void setCreated(Date created) {
+		this.created = created;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+
+	public byte getLevel() {
+		return level;
+	}
+
+	public void setLevel(byte level) {
+		this.level = level;
+	}
+
+	public short getRank() {
+		return rank;
+	}
+
+	public void setRank(short rank) {
+		this.rank = rank;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public void setTotal(long total) {
+		this.total = total;
+	}
+
+	public float getRatio() {
+		return ratio;
+	}
+
+	public void setRatio(float ratio) {
+		this.ratio = ratio;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+
+	public char getGrade() {
+		return grade;
+	}
+
+	public void setGrade(char grade) {
+		this.grade = grade;
+	}
+
+	public Integer getVersion() {
+		return version;
+	}
+
+	public void setVersion(Integer version) {
+		this.version = version;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null) {
+			return false;
+		}
+		if (!(obj instanceof WideRecord)) {
+			return false;
+		}
+
+		WideRecord anotherRecord = (WideRecord) obj;
+		return this.getCode().equals(anotherRecord.getCode()) && this.getName().equals(anotherRecord.getName())
+				&& this.getDescription().equals(anotherRecord.getDescription())
+				&& this.getGender() == anotherRecord.getGender()
+				&& this.getCreated().equals(anotherRecord.getCreated())
+				&& this.isActive() == anotherRecord.isActive() && this.getLevel() == anotherRecord.getLevel()
+				&& this.getRank() == anotherRecord.getRank() && this.getCount() == anotherRecord.getCount()
+				&& this.getTotal() == anotherRecord.getTotal() && this.getRatio() == anotherRecord.getRatio()
+				&& this.getAmount() == anotherRecord.getAmount() && this.getGrade() == anotherRecord.getGrade()
+				&& this.getVersion().equals(anotherRecord.getVersion());
+	}
+}
\ No newline at end of file
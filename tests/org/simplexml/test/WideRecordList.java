@@ -0,0 +1,7 @@
+package org.simplexml.test;
+
+import java.util.ArrayList;
+
+public class WideRecordList extends ArrayList<WideRecord> {
+	private static final long serialVersionUID = 0L;
+}
\ No newline at end of file
@@ -0,0 +1,210 @@
+package org.simplexml.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.function.IntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.simplexml.OutputProfile;
+import org.simplexml.XMLSerializer;
+
+/**
+ * Round trips of generated datasets in two sizes. For eight times the input, a
+ * linear implementation needs about eight times the CPU time and memory, a
+ * quadratic one 64 times. Both are measured for the current thread only,
+ * and the best of several runs is taken, so the load of the machine has
+ * little influence.
+ */
+public class XMLSerializerPerformanceTest {
+	private static final int SIZE = 2000;
+	private static final int GROWTH = 8;
+	private static final double MAX_GROWTH_RATIO = 2.0 * GROWTH;
+	private static final int RUNS = 5;
+
+	@Test
+	public void testWideObjects() throws Exception {
+		assertRoundTrip("Wide objects", XMLSerializerPerformanceTest::createRecords, WideRecordList.class, 24000);
+	}
+
+	@Test
+	public void testDeepNesting() throws Exception {
+		try {
+			XMLSerializer.setOutputProfile(OutputProfile.COMPACT);
+			assertRoundTrip("Deep nesting", XMLSerializerPerformanceTest::createChain, Link.class, 2000);
+		} finally {
+			XMLSerializer.setOutputProfile(OutputProfile.PRETTY);
+		}
+	}
+
+	@Test
+	public void testLargeCollection() throws Exception {
+		assertRoundTrip("Large collection", size -> createBooks(size, 20), BookList.class, 5000);
+	}
+
+	@Test
+	public void testLargeMap() throws Exception {
+		assertRoundTrip("Large map", XMLSerializerPerformanceTest::createIndex, BookIndex.class, 4000);
+	}
+
+	@Test
+	public void testLongStrings() throws Exception {
+		assertRoundTrip("Long strings", size -> createBooks(size / 10, 1000), BookList.class, 8000);
+	}
+
+	private static void assertRoundTrip(String name, IntFunction<Object> generator, Class<?> clazz,
+			long maxBytesPerItem) throws Exception {
+		Object smallObj = generator.apply(SIZE);
+		Object largeObj = generator.apply(SIZE * GROWTH);
+
+		measure(smallObj, clazz);
+		Measurement small = measure(smallObj, clazz);
+		Measurement large = measure(largeObj, clazz);
+
+		if (largeObj instanceof Link) {
+			assertChain((Link) largeObj, (Link) large.result);
+		} else {
+			Assert.assertEquals(name + " round trip", largeObj, large.result);
+		}
+
+		if (large.cpuTime >= 0) {
+			double timeRatio = (double) large.cpuTime / small.cpuTime;
+			Assert.assertTrue(name + ": CPU time grows by factor " + timeRatio, timeRatio < MAX_GROWTH_RATIO);
+		}
+
+		if (large.allocatedBytes >= 0) {
+			double allocationRatio = (double) large.allocatedBytes / small.allocatedBytes;
+			Assert.assertTrue(name + ": allocations grow by factor " + allocationRatio,
+					allocationRatio < MAX_GROWTH_RATIO);
+
+			long bytesPerItem = large.allocatedBytes / (SIZE * GROWTH);
+			Assert.assertTrue(name + ": " + bytesPerItem + " bytes allocated per item", bytesPerItem <= maxBytesPerItem);
+		}
+	}
+
+	private static void assertChain(Link expected, Link actual) {
+		while (expected != null) {
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.getName(), actual.getName());
+			expected = expected.getNext();
+			actual = actual.getNext();
+		}
+	}
+
+	private static Measurement measure(Object obj, Class<?> clazz) throws Exception {
+		Measurement measurement = new Measurement();
+
+		for (int i = 0; i < RUNS; i++) {
+			System.gc();
+			long allocatedBytes = getAllocatedBytes();
+			long cpuTime = getCpuTime();
+
+			byte[] bytes = XMLSerializer.serializeToBytes(obj);
+			measurement.result = XMLSerializer.deserialize(bytes, 0, bytes.length, clazz);
+
+			if (cpuTime >= 0) {
+				cpuTime = getCpuTime() - cpuTime;
+				measurement.cpuTime = measurement.cpuTime < 0 ? cpuTime : Math.min(measurement.cpuTime, cpuTime);
+			}
+
+			if (allocatedBytes >= 0) {
+				allocatedBytes = getAllocatedBytes() - allocatedBytes;
+				measurement.allocatedBytes = measurement.allocatedBytes < 0 ? allocatedBytes
+						: Math.min(measurement.allocatedBytes, allocatedBytes);
+			}
+		}
+
+		return measurement;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static long getAllocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+			if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+				return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static long getCpuTime() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled()) {
+			return threadBean.getCurrentThreadCpuTime();
+		}
+		return -1;
+	}
+
+	private static Object createRecords(int size) {
+		WideRecordList records = new WideRecordList();
+		for (int i = 0; i < size; i++) {
+			WideRecord record = new WideRecord();
+			record.setCode("R" + i);
+			record.setName("Record " + i);
+			record.setDescription("Generated record number " + i + " of " + size);
+			record.setGender(Gender.values()[i % Gender.values().length]);
+			record.setCreated(new Date(1500000000000L + i));
+			record.setActive(i % 2 == 0);
+			record.setLevel((byte) i);
+			record.setRank((short) i);
+			record.setCount(i);
+			record.setTotal(i * 1000000007L);
+			record.setRatio(i / 7.0F);
+			record.setAmount(i / 3.0);
+			record.setGrade((char) ('A' + i % 26));
+			record.setVersion(i);
+			records.add(record);
+		}
+		return records;
+	}
+
+	private static Object createChain(int size) {
+		Link first = new Link();
+		first.setName("Link 0");
+
+		Link link = first;
+		for (int i = 1; i < size; i++) {
+			Link next = new Link();
+			next.setName("Link " + i);
+			link.setNext(next);
+			link = next;
+		}
+		return first;
+	}
+
+	private static Object createBooks(int size, int titleLength) {
+		String pattern = "Tom & Jerry <\"Cat\" > 'Mouse'> ä€😀 ";
+
+		BookList books = new BookList();
+		for (int i = 0; i < size; i++) {
+			StringBuilder title = new StringBuilder(Integer.toString(i));
+			while (title.length() < titleLength) {
+				title.append(pattern);
+			}
+
+			Book book = new Book();
+			book.setTitle(title.toString());
+			books.add(book);
+		}
+		return books;
+	}
+
+	private static Object createIndex(int size) {
+		BookIndex index = new BookIndex();
+		for (int i = 0; i < size; i++) {
+			Book book = new Book();
+			book.setTitle("Book " + i);
+			index.put("ISBN-" + i, book);
+		}
+		return index;
+	}
+
+	private static final class Measurement {
+		private Object result;
+		private long cpuTime = -1;
+		private long allocatedBytes = -1;
+	}
+}
\ No newline at end of file
@@ -4,14 +4,25 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.simplexml.AsyncXMLDeserializer;
+import org.simplexml.OutputProfile;
+import org.simplexml.StringTable;
 import org.simplexml.XMLSerializer;
+import org.w3c.dom.DOMException;
 import org.xml.sax.SAXException;
 
 public class XMLSerializerTest {
@@ -161,4 +172,559 @@ public class XMLSerializerTest {
 			Assert.assertTrue(t instanceof InvocationTargetException);
 		}
 	}
+
+	@Test
+	public void testSerializationWithInvalidNodeNames() throws IOException {
+		BookList books = new BookList();
+		books.add(new Book() {
+		});
+
+		for (Object obj : new Object[] { books, new int[][] { { 1 } } }) {
+			try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+				Throwable t = null;
+
+				try {
+					XMLSerializer.serialize(baos, obj);
+				} catch (Exception e) {
+					t = e;
+				}
+
+				Assert.assertNotNull(t);
+				Assert.assertTrue(t instanceof DOMException);
+				Assert.assertEquals(0, baos.size());
+			}
+		}
+	}
+
+	@Test
+	public void testSerializationWithSharedReferences() throws IOException {
+		Link first = new Link();
+		first.setName("first");
+		Link second = new Link();
+		second.setName("second");
+		first.setNext(second);
+		second.setNext(first);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			try {
+				XMLSerializer.setReferenceTracking(true);
+				XMLSerializer.serialize(baos, first);
+				String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+				Assert.assertTrue(xml.contains("<Link id=\"1\">"));
+				Assert.assertTrue(xml.contains("<Next ref=\"1\"/>"));
+
+				try (ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray())) {
+					Link result = (Link) XMLSerializer.deserialize(bais, Link.class);
+
+					Assert.assertEquals("first", result.getName());
+					Assert.assertEquals("second", result.getNext().getName());
+					Assert.assertSame(result, result.getNext().getNext());
+				}
+			} catch (Exception e) {
+				Assert.fail(e.toString());
+			} finally {
+				XMLSerializer.setReferenceTracking(false);
+			}
+		}
+	}
+
+	@Test
+	public void testSerializationWithDeepNesting() throws Exception {
+		final Link first = new Link();
+		Link last = first;
+		for (int i = 1; i < 2000; i++) {
+			Link next = new Link();
+			next.setName(Integer.toString(i));
+			last.setNext(next);
+			last = next;
+		}
+
+		final Throwable[] error = new Throwable[1];
+		final Link[] result = new Link[1];
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+					XMLSerializer.serialize(baos, first);
+
+					try (ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray())) {
+						result[0] = (Link) XMLSerializer.deserialize(bais, Link.class);
+					}
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		}, "small-stack", 128 * 1024);
+		thread.start();
+		thread.join();
+
+		Assert.assertNull(error[0]);
+
+		Link link = result[0];
+		for (int i = 1; i < 2000; i++) {
+			link = link.getNext();
+		}
+		Assert.assertEquals("1999", link.getName());
+	}
+
+	@Test
+	public void testDeserializationWithStringTable() throws IOException {
+		String modifiedXmlString = xmlString.replaceFirst("The Sign of Four", "The Hound of the Baskervilles");
+		StringTable stringTable = new StringTable(16);
+
+		try (ByteArrayInputStream bais = new ByteArrayInputStream(modifiedXmlString.getBytes(StandardCharsets.UTF_8))) {
+			try {
+				XMLSerializer.setStringTable(stringTable);
+				Person result = (Person) XMLSerializer.deserialize(bais, Person.class);
+
+				Assert.assertSame(result.getBooks().get(0).getTitle(), result.getBooks().get(1).getTitle());
+				Assert.assertEquals(1, stringTable.getHitCount());
+				Assert.assertEquals(6, stringTable.getLookupCount());
+				Assert.assertEquals(16, stringTable.getCapacity());
+			} catch (Exception e) {
+				Assert.fail(e.toString());
+			} finally {
+				XMLSerializer.setStringTable(null);
+			}
+		}
+	}
+
+	@Test
+	public void testSerializationWithCompactArrays() throws IOException {
+		SensorData data = new SensorData();
+		data.setSensor("T1");
+		data.setTimestamps(new long[] { 1534302128061L, 1534302129061L, Long.MIN_VALUE });
+		data.setValues(new double[] { 21.5, -0.125, Double.NaN, Double.MAX_VALUE });
+		data.setValid(new boolean[] { true, false, true });
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			try {
+				XMLSerializer.setCompactArrays(true);
+				XMLSerializer.serialize(baos, data);
+				String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+				Assert.assertTrue(xml.contains("<SensorData Sensor=\"T1\">"));
+				Assert.assertTrue(xml.contains("<Values encoding=\"base64\">"));
+				Assert.assertFalse(xml.contains("<Double>"));
+
+				try (ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray())) {
+					SensorData result = (SensorData) XMLSerializer.deserialize(bais, SensorData.class);
+
+					Assert.assertEquals("T1", result.getSensor());
+					Assert.assertArrayEquals(data.getTimestamps(), result.getTimestamps());
+					Assert.assertArrayEquals(data.getValues(), result.getValues(), 0.0);
+					Assert.assertTrue(Arrays.equals(data.getValid(), result.getValid()));
+				}
+			} catch (Exception e) {
+				Assert.fail(e.toString());
+			} finally {
+				XMLSerializer.setCompactArrays(false);
+			}
+		}
+	}
+
+	@Test
+	public void testSerializationWithAttributeMode() throws IOException {
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			try {
+				XMLSerializer.setAttributeMode(true);
+				XMLSerializer.serialize(baos, person);
+				String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+				Assert.assertTrue(xml.contains("<Person Age=\"164\" BirthDate=\"" + person.getBirthDate().getTime()
+						+ "\" FirstName=\"Sherlock\" Gender=\"MALE\" IsDetective=\"true\" LastName=\"Holmes\">"));
+				Assert.assertTrue(xml.contains("<Address City=\"London\" Street=\"221B Baker Street\"/>"));
+				Assert.assertTrue(xml.contains("<Book Title=\"The Sign of Four\"/>"));
+
+				XMLSerializer.setAttributeMode(false);
+				try (ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray())) {
+					Person result = (Person) XMLSerializer.deserialize(bais, Person.class);
+
+					Assert.assertEquals(person, result);
+				}
+			} catch (Exception e) {
+				Assert.fail(e.toString());
+			} finally {
+				XMLSerializer.setAttributeMode(false);
+			}
+		}
+	}
+
+	@Test
+	public void testSerializationOfCollectionsAndMaps() throws Exception {
+		LimitedBookList books = new LimitedBookList(10);
+		BookIndex index = new BookIndex();
+		TitleSet titles = new TitleSet();
+		for (int i = 0; i < 10; i++) {
+			Book book = new Book();
+			book.setTitle("Book " + i);
+			books.add(book);
+			index.put("ISBN-" + i, book);
+			titles.add(book.getTitle());
+		}
+
+		LimitedBookList booksResult = (LimitedBookList) roundTrip(books);
+		Assert.assertEquals(books, booksResult);
+		Assert.assertEquals(Integer.MAX_VALUE, booksResult.getLimit());
+
+		Assert.assertEquals(index, roundTrip(index));
+
+		TitleSet titlesResult = (TitleSet) roundTrip(titles);
+		Assert.assertEquals(new ArrayList<>(titles), new ArrayList<>(titlesResult));
+	}
+
+	@Test
+	public void testAsyncDeserialization() throws Exception {
+		byte[] bytes = xmlString.replaceFirst("Holmes", "Holmes &amp; Co. \u00e4\u20ac").getBytes(StandardCharsets.UTF_8);
+
+		for (int chunkSize : new int[] { 1, 2, 3, 7, 64 }) {
+			AsyncXMLDeserializer deserializer = new AsyncXMLDeserializer(Person.class);
+
+			for (int i = 0; i < bytes.length; i += chunkSize) {
+				deserializer.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+				Assert.assertFalse(deserializer.getResult().isDone());
+			}
+			deserializer.end();
+
+			Person result = (Person) deserializer.getResult().get();
+			Assert.assertEquals("Holmes & Co. \u00e4\u20ac", result.getLastName());
+			person.setLastName(result.getLastName());
+			Assert.assertEquals(person, result);
+		}
+	}
+
+	@Test
+	public void testAsyncDeserializationWithEncoding() throws Exception {
+		person.setLastName("Holmes \u00e4\u20ac");
+
+		try {
+			for (Charset encoding : new Charset[] { StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16 }) {
+				XMLSerializer.setOutputProfile(new OutputProfile(true, true, encoding));
+				byte[] bytes = XMLSerializer.serializeToBytes(person);
+
+				for (int chunkSize : new int[] { 1, 3, 64 }) {
+					AsyncXMLDeserializer deserializer = new AsyncXMLDeserializer(Person.class);
+
+					for (int i = 0; i < bytes.length; i += chunkSize) {
+						deserializer.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+					}
+					deserializer.end();
+
+					Assert.assertEquals(person, deserializer.getResult().get());
+				}
+			}
+		} finally {
+			XMLSerializer.setOutputProfile(OutputProfile.PRETTY);
+		}
+
+		byte[] bytes = xmlString.replaceFirst("UTF-8", "UNKNOWN").getBytes(StandardCharsets.UTF_8);
+		AsyncXMLDeserializer deserializer = new AsyncXMLDeserializer(Person.class);
+		deserializer.feed(ByteBuffer.wrap(bytes));
+		deserializer.end();
+
+		Throwable t = null;
+		try {
+			deserializer.getResult().get();
+		} catch (ExecutionException e) {
+			t = e.getCause();
+		}
+
+		Assert.assertNotNull(t);
+		Assert.assertTrue(t instanceof SAXException);
+	}
+
+	@Test
+	public void testAsyncDeserializationWithIncompleteDocument() throws Exception {
+		byte[] bytes = xmlString.getBytes(StandardCharsets.UTF_8);
+		AsyncXMLDeserializer deserializer = new AsyncXMLDeserializer(Person.class);
+		deserializer.feed(ByteBuffer.wrap(bytes, 0, bytes.length / 2));
+		deserializer.end();
+
+		Throwable t = null;
+		try {
+			deserializer.getResult().get();
+		} catch (ExecutionException e) {
+			t = e.getCause();
+		}
+
+		Assert.assertNotNull(t);
+		Assert.assertTrue(t instanceof SAXException);
+	}
+
+	@Test
+	public void testAsyncDeserializationWithSyntaxError() throws Exception {
+		AsyncXMLDeserializer deserializer = new AsyncXMLDeserializer(Person.class);
+		deserializer.feed(ByteBuffer.wrap("<Person><Name>Sherlock</Age>".getBytes(StandardCharsets.UTF_8)));
+
+		// the error is reported while feeding, before end() is called
+		Assert.assertTrue(deserializer.getResult().isCompletedExceptionally());
+	}
+
+	@Test
+	public void testDeltaSerialization() throws Exception {
+		Person previous = (Person) XMLSerializer.deserialize(
+				new ByteArrayInputStream(xmlString.getBytes(StandardCharsets.UTF_8)), Person.class);
+		Person current = (Person) XMLSerializer.deserialize(
+				new ByteArrayInputStream(xmlString.getBytes(StandardCharsets.UTF_8)), Person.class);
+		current.setAge(165);
+		current.getAddress().setCity("Sussex");
+		Book book = new Book();
+		book.setTitle("A Study in Scarlet");
+		current.getBooks().add(book);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.serializeDelta(baos, previous, current);
+			String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+			Assert.assertTrue(xml.contains("<Age>165</Age>"));
+			Assert.assertTrue(xml.contains("<City>Sussex</City>"));
+			Assert.assertTrue(xml.contains("<Book change=\"add\" index=\"2\">"));
+			Assert.assertFalse(xml.contains("Holmes"));
+			Assert.assertFalse(xml.contains("Street"));
+			Assert.assertFalse(xml.contains("The Sign of Four"));
+
+			XMLSerializer.applyDelta(new ByteArrayInputStream(baos.toByteArray()), previous);
+			Assert.assertEquals(current, previous);
+		}
+
+		current.getBooks().remove(0);
+		current.setAddress(null);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.serializeDelta(baos, previous, current);
+			String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+			Assert.assertTrue(xml.contains("<Address change=\"remove\"/>"));
+			Assert.assertTrue(xml.contains("<Book change=\"remove\" index=\"0\"/>"));
+			Assert.assertFalse(xml.contains("A Study in Scarlet"));
+
+			XMLSerializer.applyDelta(new ByteArrayInputStream(baos.toByteArray()), previous);
+			Assert.assertNull(previous.getAddress());
+			Assert.assertEquals(current.getBooks(), previous.getBooks());
+		}
+	}
+
+	@Test
+	public void testDeltaSerializationOfListInsertsAndRemovals() throws Exception {
+		BookList previous = (BookList) createBooks(10000);
+		BookList current = (BookList) createBooks(10000);
+		Book book = new Book();
+		book.setTitle("Inserted");
+		current.add(0, book);
+		current.remove(5000);
+		current.remove(5000);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.serializeDelta(baos, previous, current);
+			int fullLength = XMLSerializer.serializeToBytes(current).length;
+
+			Assert.assertTrue(baos.size() + " bytes", baos.size() < fullLength / 100);
+
+			XMLSerializer.applyDelta(new ByteArrayInputStream(baos.toByteArray()), previous);
+			Assert.assertEquals(current, previous);
+		}
+
+		current.set(0, previous.get(1));
+		current.add(1, book);
+		current.add(book);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.serializeDelta(baos, previous, current);
+			XMLSerializer.applyDelta(new ByteArrayInputStream(baos.toByteArray()), previous);
+			Assert.assertEquals(current, previous);
+		}
+	}
+
+	@Test
+	public void testDeltaSerializationWithSharedObjects() throws Exception {
+		for (boolean referenceTracking : new boolean[] { false, true }) {
+			for (String[] titles : new String[][] { { "old", "old" }, { "new", "old" }, { "old" } }) {
+				BookList previous = new BookList();
+				for (String title : titles) {
+					Book book = new Book();
+					book.setTitle(title);
+					previous.add(book);
+				}
+
+				Book shared = new Book();
+				shared.setTitle("new");
+				BookList current = new BookList();
+				current.add(shared);
+				current.add(shared);
+
+				try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+					XMLSerializer.setReferenceTracking(referenceTracking);
+					XMLSerializer.serializeDelta(baos, previous, current);
+					XMLSerializer.applyDelta(new ByteArrayInputStream(baos.toByteArray()), previous);
+				} finally {
+					XMLSerializer.setReferenceTracking(false);
+				}
+
+				Assert.assertEquals(current, previous);
+				if (referenceTracking) {
+					Assert.assertSame(previous.get(0), previous.get(1));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRegistration() throws Exception {
+		XMLSerializer.register(Person.class);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.writeReflectionConfig(baos);
+			String json = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+			Assert.assertTrue(json.contains("\"name\": \"org.simplexml.test.Person\",\n    \"allDeclaredFields\": true"));
+			Assert.assertTrue(json.contains("\"name\": \"org.simplexml.test.Address\""));
+			Assert.assertTrue(json.contains("\"name\": \"org.simplexml.test.Book\""));
+			Assert.assertTrue(json.contains("\"name\": \"org.simplexml.test.BookList\""));
+			Assert.assertTrue(json.contains("\"name\": \"org.simplexml.test.Gender\""));
+			Assert.assertTrue(json.contains("{ \"name\": \"valueOf\", \"parameterTypes\": [\"java.lang.String\"] }"));
+			Assert.assertTrue(json.contains("\"name\": \"java.lang.Integer\""));
+			Assert.assertFalse(json.contains("\"name\": \"java.lang.String\""));
+		}
+
+		for (Class<?> clazz : new Class<?>[] { ArrayList.class, ArrayList.class, Shelf.class }) {
+			Throwable t = null;
+			try {
+				XMLSerializer.register(clazz);
+			} catch (IllegalArgumentException e) {
+				t = e;
+			}
+			Assert.assertNotNull(t);
+		}
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.writeReflectionConfig(baos);
+			String json = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+			Assert.assertFalse(json.contains("\"name\": \"java.util.ArrayList\""));
+			Assert.assertFalse(json.contains("\"name\": \"org.simplexml.test.Shelf\""));
+		}
+	}
+
+	@Test
+	public void testSerializationToBytes() throws Exception {
+		byte[] expected = xmlString.getBytes(StandardCharsets.UTF_8);
+
+		for (int i = 0; i < 2; i++) {
+			Assert.assertArrayEquals(expected, XMLSerializer.serializeToBytes(person));
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+		buffer.put((byte) 1);
+		Assert.assertEquals(expected.length, XMLSerializer.serializeInto(buffer, person));
+		Assert.assertEquals(expected.length + 1, buffer.position());
+
+		Person result = (Person) XMLSerializer.deserialize(buffer.array(), 1, expected.length, Person.class);
+		Assert.assertEquals(person, result);
+
+		Throwable t = null;
+		try {
+			XMLSerializer.serializeInto(buffer, person);
+		} catch (BufferOverflowException e) {
+			t = e;
+		}
+
+		Assert.assertNotNull(t);
+		Assert.assertEquals(expected.length + 1, buffer.position());
+	}
+
+	@Test
+	public void testSerializationWithOutputProfile() throws Exception {
+		try {
+			XMLSerializer.setOutputProfile(OutputProfile.COMPACT);
+			byte[] bytes = XMLSerializer.serializeToBytes(person);
+
+			Assert.assertEquals(xmlString.replaceAll("\r\n *", ""), new String(bytes, StandardCharsets.UTF_8));
+			Assert.assertEquals(person, XMLSerializer.deserialize(bytes, 0, bytes.length, Person.class));
+
+			XMLSerializer.setOutputProfile(new OutputProfile(true, false, StandardCharsets.UTF_8));
+			bytes = XMLSerializer.serializeToBytes(person);
+
+			Assert.assertEquals(xmlString.substring(xmlString.indexOf("<Person>")),
+					new String(bytes, StandardCharsets.UTF_8));
+
+			person.setLastName("Holmes \u00e4\u20ac");
+			XMLSerializer.setOutputProfile(new OutputProfile(false, true, StandardCharsets.ISO_8859_1));
+			bytes = XMLSerializer.serializeToBytes(person);
+			String xml = new String(bytes, StandardCharsets.ISO_8859_1);
+
+			Assert.assertTrue(xml.startsWith("<?xml version=\"1.0\" encoding=\"ISO-8859-1\""));
+			Assert.assertTrue(xml.contains("<LastName>Holmes \u00e4&#8364;</LastName>"));
+			Assert.assertEquals(person, XMLSerializer.deserialize(bytes, 0, bytes.length, Person.class));
+		} finally {
+			XMLSerializer.setOutputProfile(OutputProfile.PRETTY);
+		}
+	}
+
+	@Test
+	public void testSerializationToBytesWithUTF16() throws Exception {
+		try {
+			XMLSerializer.setOutputProfile(new OutputProfile(true, true, StandardCharsets.UTF_16));
+			byte[] first = XMLSerializer.serializeToBytes(person);
+			byte[] second = XMLSerializer.serializeToBytes(person);
+
+			try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+				XMLSerializer.serialize(baos, person);
+				Assert.assertArrayEquals(baos.toByteArray(), first);
+				Assert.assertArrayEquals(baos.toByteArray(), second);
+			}
+
+			for (byte[] bytes : new byte[][] { first, second }) {
+				AsyncXMLDeserializer deserializer = new AsyncXMLDeserializer(Person.class);
+				deserializer.feed(ByteBuffer.wrap(bytes));
+				deserializer.end();
+
+				Assert.assertEquals(person, deserializer.getResult().get());
+			}
+		} finally {
+			XMLSerializer.setOutputProfile(OutputProfile.PRETTY);
+		}
+	}
+
+	@Test
+	public void testBatchSerialization() throws Exception {
+		Book book = new Book();
+		book.setTitle("A Study in Scarlet");
+		List<Object> objects = Arrays.asList(person, book, person.getAddress(), person);
+
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			XMLSerializer.serializeBatch(baos, objects);
+			String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+			Assert.assertEquals(1, xml.split("<\\?xml").length - 1);
+			Assert.assertTrue(xml.contains("<Batch>\r\n  <Person>\r\n    <FirstName>Sherlock</FirstName>"));
+
+			List<Object> result = XMLSerializer.deserializeBatch(new ByteArrayInputStream(baos.toByteArray()),
+					Person.class, Book.class, Address.class);
+			Assert.assertEquals(objects, result);
+
+			Throwable t = null;
+			try {
+				XMLSerializer.deserializeBatch(new ByteArrayInputStream(baos.toByteArray()), Person.class, Book.class);
+			} catch (SAXException e) {
+				t = e;
+			}
+			Assert.assertNotNull(t);
+		}
+	}
+
+	private static Object createBooks(int size) {
+		BookList books = new BookList();
+		for (int i = 0; i < size; i++) {
+			Book book = new Book();
+			book.setTitle("Book " + i);
+			books.add(book);
+		}
+		return books;
+	}
+
+	private static Object roundTrip(Object obj) throws Exception {
+		byte[] bytes = XMLSerializer.serializeToBytes(obj);
+		return XMLSerializer.deserialize(bytes, 0, bytes.length, obj.getClass());
+	}
 }
\ No newline at end of file